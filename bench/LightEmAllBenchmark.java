@@ -0,0 +1,184 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+import javalib.worldimages.Posn;
+
+// Command-line benchmark suite for LightEmAll: board generation, scrambling, power propagation,
+// radius calculation, input handling, win checks and rendering, through javalib or rasterized,
+// over a range of board sizes and every layout.
+// For every case it reports the average time per operation and the bytes allocated per
+// operation, so regressions in the click path show up as either slower or more garbage.
+//
+// Usage: java LightEmAllBenchmark [--sizes 4,16,64] [--layouts manual,fractal,random]
+//                                 [--only name,name] [--warmup ms] [--measure ms]
+//                                 [--metrics on|off]
+class LightEmAllBenchmark {
+  static volatile long sink; // keeps results alive so the JIT cannot drop the measured work
+
+  int warmupMillis = 500; // time spent running each case before measuring
+  int measureMillis = 1000; // time spent measuring each case
+  ArrayList<String> only = new ArrayList<String>(); // case names to run, or empty for all
+  boolean metrics; // whether the games record GameMetrics while being measured
+
+  public static void main(String[] args) {
+    LightEmAllBenchmark bench = new LightEmAllBenchmark();
+    int[] sizes = {4, 16, 64, 256, 1024};
+    String[] layouts = {"manual", "fractal", "random"};
+
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("--sizes")) {
+        String[] parts = args[i + 1].split(",");
+        sizes = new int[parts.length];
+        for (int j = 0; j < parts.length; j++) {
+          sizes[j] = Integer.parseInt(parts[j].trim());
+        }
+      }
+      else if (args[i].equals("--layouts")) {
+        layouts = args[i + 1].split(",");
+      }
+      else if (args[i].equals("--only")) {
+        for (String name : args[i + 1].split(",")) {
+          bench.only.add(name.trim());
+        }
+      }
+      else if (args[i].equals("--warmup")) {
+        bench.warmupMillis = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("--measure")) {
+        bench.measureMillis = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("--metrics")) {
+        bench.metrics = args[i + 1].equals("on");
+      }
+      else {
+        throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    System.out.printf("%-16s %-8s %6s %14s %14s%n", "case", "layout", "size", "ns/op", "B/op");
+    for (String layout : layouts) {
+      for (int size : sizes) {
+        bench.runAll(layout.trim(), size);
+      }
+    }
+  }
+
+  // Purpose: Runs every selected case against one freshly built board
+  void runAll(String layout, int size) {
+    int kind = LightEmAll.layoutNamed(layout);
+    LightEmAll game = new LightEmAll(size, size, kind);
+    game.metrics.enabled = this.metrics;
+    Random rand = new Random(size);
+
+    this.run("generate", layout, size, () -> {
+      if (kind == LightEmAll.RANDOM_TREE) {
+        game.initializeRandomTreeBoard(rand.nextLong());
+      }
+      else if (kind == LightEmAll.FRACTAL) {
+        game.initializeFractalBoard();
+      }
+      else {
+        game.initializeManualBoard();
+      }
+      sink += game.wires.mask(0);
+    });
+    this.run("scramble", layout, size, () -> {
+      game.scrambleBoard();
+      sink += game.wires.mask(0);
+    });
+    this.run("updatePower", layout, size, () -> {
+      game.wires.rotate(rand.nextInt(game.wires.size()), 1);
+      game.updatePower();
+      sink += game.poweredCount;
+    });
+    this.run("rotatePiece", layout, size, () -> {
+      game.rotatePiece(rand.nextInt(size), rand.nextInt(size));
+      sink += game.poweredCount;
+    });
+
+    // Clicks and key presses through the input handlers, one key to every three clicks, from
+    // positions made up front so the case only measures the handlers
+    Posn[] clicks = new Posn[1024];
+    for (int i = 0; i < clicks.length; i++) {
+      clicks[i] = new Posn(rand.nextInt(size * LightEmAll.TILE_SIZE),
+        rand.nextInt(size * LightEmAll.TILE_SIZE));
+    }
+    String[] keys = {"up", "down", "left", "right"};
+    int[] inputs = {0};
+    this.run("input", layout, size, () -> {
+      int i = inputs[0]++;
+      if ((i & 3) == 0) {
+        game.onKeyEvent(keys[(i >>> 2) & 3]);
+      }
+      else {
+        game.onMouseClicked(clicks[i & (clicks.length - 1)]);
+      }
+      sink += game.poweredCount;
+    });
+    this.run("calculateRadius", layout, size, () -> {
+      sink += game.calculateRadius();
+    });
+    this.run("allPowered", layout, size, () -> {
+      sink += game.allPowered() ? 1 : 0;
+    });
+
+    // A frame after one tile changed patches the previous scene; a full redraw draws every tile
+    game.makeScene();
+    this.run("makeScene", layout, size, () -> {
+      game.markDirty(rand.nextInt(game.wires.size()));
+      sink += game.makeScene().hashCode();
+    });
+    this.run("redrawScene", layout, size, () -> {
+      game.reuseScene = false;
+      sink += game.makeScene().hashCode();
+      game.reuseScene = true;
+    });
+
+    // Full redraws into one reused buffer, with tiles shrunk so the image is at most 4096
+    // pixels wide
+    int tileSize = Math.max(1, Math.min(50, 4096 / size));
+    RasterRenderer raster = new RasterRenderer(tileSize, Math.max(1, tileSize / 10));
+    int[][] pixels = {null};
+    this.run("rasterize", layout, size, () -> {
+      pixels[0] = raster.render(game, pixels[0]);
+      sink += pixels[0][0];
+    });
+  }
+
+  // Purpose: Warms up, then measures time and allocation per call of the given operation
+  void run(String name, String layout, int size, Runnable op) {
+    if (!this.only.isEmpty() && !this.only.contains(name)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    this.loop(op, this.warmupMillis);
+
+    long bytesBefore = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    long ops = this.loop(op, this.measureMillis);
+    long elapsed = System.nanoTime() - start;
+    long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+    System.out.printf("%-16s %-8s %6d %14.1f %14.1f%n",
+      name, layout, size, (double) elapsed / ops, (double) bytes / ops);
+  }
+
+  // Purpose: Calls the operation repeatedly for at least the given time, returning the count.
+  // Calls are made in growing batches so reading the clock does not dominate cheap operations
+  long loop(Runnable op, int millis) {
+    long deadline = System.nanoTime() + millis * 1_000_000L;
+    long ops = 0;
+    int batch = 1;
+    do {
+      for (int i = 0; i < batch; i++) {
+        op.run();
+      }
+      ops += batch;
+      batch = Math.min(batch * 2, 1024);
+    } while (System.nanoTime() < deadline);
+    return ops;
+  }
+}
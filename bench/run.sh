@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the game sources together with the benchmark suite and runs it headless.
+# The javalib and tester JARs are taken from JAVALIB_JAR and TESTER_JAR, defaulting to lib/.
+# Any arguments are passed on to LightEmAllBenchmark, for example:
+#   bench/run.sh --sizes 64,256 --layouts fractal --only updatePower,rotatePiece
+set -e
+
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+JAVALIB_JAR="${JAVALIB_JAR:-$ROOT/lib/javalib.jar}"
+TESTER_JAR="${TESTER_JAR:-$ROOT/lib/tester.jar}"
+CLASSPATH="$JAVALIB_JAR:$TESTER_JAR"
+OUT="${TMPDIR:-/tmp}/lightemall-bench"
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -cp "$CLASSPATH" -d "$OUT" "$ROOT"/src/*.java "$ROOT"/bench/*.java
+
+exec java -Djava.awt.headless=true -Xms1g -Xmx4g ${BENCH_JVM_OPTS} \
+  -cp "$OUT:$CLASSPATH" LightEmAllBenchmark "$@"
@@ -0,0 +1,245 @@
+import java.util.Arrays;
+
+// Searches over the connected wires of a PackedBoard, using buffers that are allocated once
+// per board size and reused by every search. A tile counts as visited when its stamp equals
+// the current epoch, so nothing has to be cleared between runs.
+class BfsEngine {
+  int[] queue; // tiles reached by the last search, in visiting order
+  int[] dist; // steps from the start of the last search, valid for visited tiles
+  int[] parent; // tile each visited tile was reached from in the last search
+  int[] stamp; // epoch of the last search that visited each tile
+  int epoch; // number of the current search
+  int[] source; // station each tile was reached from by the last multiSearch, or null before one
+  int[] byRadius; // station numbers sorted by radius, largest first, for multiSearch
+  int stations; // number of entries in byRadius, leaving out stations with a negative radius
+  int[] sortedRadii; // radii byRadius was sorted for, or null before the first multiSearch
+  int sortedCount; // number of stations byRadius was sorted for
+
+  // Creates buffers for boards with the given number of tiles
+  BfsEngine(int size) {
+    this.queue = new int[size];
+    this.dist = new int[size];
+    this.parent = new int[size];
+    this.stamp = new int[size];
+  }
+
+  // Purpose: Starts a new search, so every tile counts as unvisited again
+  void nextEpoch() {
+    this.epoch++;
+    if (this.epoch == Integer.MAX_VALUE) {
+      Arrays.fill(this.stamp, 0);
+      this.epoch = 1;
+    }
+  }
+
+  // Purpose: Checks whether the given tile was visited by the last search
+  boolean visited(int index) {
+    return this.stamp[index] == this.epoch;
+  }
+
+  // Purpose: Runs a breadth-first search over connected wires from start, going no farther
+  // than maxDepth steps, and returns how many tiles were reached. The tiles are left in queue
+  // in visiting order, so the last one is always one of the farthest
+  int search(PackedBoard wires, int start, int maxDepth) {
+    int[] queue = this.queue;
+    int[] dist = this.dist;
+    int[] stamp = this.stamp;
+    int[] parent = this.parent;
+    byte[] links = wires.links();
+    int[] offsets = wires.offsets;
+    this.nextEpoch();
+    int epoch = this.epoch;
+
+    queue[0] = start;
+    dist[start] = 0;
+    stamp[start] = epoch;
+    int head = 0;
+    int tail = 1;
+    while (head < tail) {
+      int current = queue[head++];
+      int depth = dist[current];
+
+      // Do not go farther than the allowed radius
+      if (depth >= maxDepth) {
+        continue;
+      }
+
+      // Only follow neighbors when both sides have a matching wire
+      int open = links[current];
+      while (open != 0) {
+        int n = current + offsets[Integer.numberOfTrailingZeros(open)];
+        open &= open - 1;
+        if (stamp[n] != epoch) {
+          stamp[n] = epoch;
+          dist[n] = depth + 1;
+          parent[n] = current;
+          queue[tail++] = n;
+        }
+      }
+    }
+    return tail;
+  }
+
+  // Purpose: Runs one breadth-first search from several stations at once, where station k
+  // starts at tile starts[k] and reaches radii[k] steps, and returns how many tiles were
+  // reached. Tiles are taken in order of how many steps any station has left when reaching
+  // them, so each is reached first by the station that has the most left, which is recorded
+  // in source; dist is the distance from that station. A station joins the search when that
+  // count falls to its radius, so the whole search is linear in the tiles reached however
+  // many stations there are. Stations are sorted by radius only when their radii change
+  int multiSearch(PackedBoard wires, int[] starts, int[] radii, int count) {
+    int[] queue = this.queue;
+    int[] dist = this.dist;
+    int[] stamp = this.stamp;
+    int[] parent = this.parent;
+    byte[] links = wires.links();
+    int[] offsets = wires.offsets;
+    if (this.source == null) {
+      this.source = new int[queue.length];
+    }
+    int[] source = this.source;
+
+    if (!this.sortedFor(radii, count)) {
+      this.sortStations(radii, count);
+    }
+    int[] order = this.byRadius;
+    int stations = this.stations;
+    this.nextEpoch();
+    int epoch = this.epoch;
+
+    int tail = 0;
+    int levelStart = 0;
+    int next = 0;
+    int left = stations > 0 ? radii[order[0]] : -1;
+    while (left >= 0) {
+      // Stations join the level whose tiles have as many steps left as their radius
+      while (next < stations && radii[order[next]] == left) {
+        int k = order[next++];
+        int start = starts[k];
+        if (stamp[start] != epoch) {
+          stamp[start] = epoch;
+          dist[start] = 0;
+          source[start] = k;
+          parent[start] = -1;
+          queue[tail++] = start;
+        }
+      }
+
+      int levelEnd = tail;
+      if (left > 0) {
+        for (int i = levelStart; i < levelEnd; i++) {
+          int current = queue[i];
+          int open = links[current];
+          while (open != 0) {
+            int n = current + offsets[Integer.numberOfTrailingZeros(open)];
+            open &= open - 1;
+            if (stamp[n] != epoch) {
+              stamp[n] = epoch;
+              dist[n] = dist[current] + 1;
+              source[n] = source[current];
+              parent[n] = current;
+              queue[tail++] = n;
+            }
+          }
+        }
+      }
+      levelStart = levelEnd;
+
+      // Skip straight to the next station when no tiles are left to expand
+      if (levelStart < tail) {
+        left--;
+      }
+      else {
+        left = next < stations ? radii[order[next]] : -1;
+      }
+    }
+    return tail;
+  }
+
+  // Purpose: Checks whether byRadius was sorted for exactly the given radii
+  boolean sortedFor(int[] radii, int count) {
+    if (this.sortedRadii == null || this.sortedCount != count) {
+      return false;
+    }
+    for (int k = 0; k < count; k++) {
+      if (this.sortedRadii[k] != radii[k]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Purpose: Sorts the numbers of the stations with the given radii into byRadius, largest
+  // radius first and in station order among equal radii. Stations with a negative radius power
+  // nothing, even their own tile, so they are left out
+  void sortStations(int[] radii, int count) {
+    long[] keys = new long[count];
+    int stations = 0;
+    for (int k = 0; k < count; k++) {
+      if (radii[k] >= 0) {
+        keys[stations++] = ((long) (Integer.MAX_VALUE - radii[k]) << 32) | k;
+      }
+    }
+    Arrays.sort(keys, 0, stations);
+    if (this.byRadius == null || this.byRadius.length < count) {
+      this.byRadius = new int[count];
+    }
+    for (int i = 0; i < stations; i++) {
+      this.byRadius[i] = (int) keys[i];
+    }
+    this.stations = stations;
+    this.sortedRadii = Arrays.copyOf(radii, count);
+    this.sortedCount = count;
+  }
+
+  // Purpose: Computes the diameter, in steps, of the wiring connected to start in a single
+  // traversal, or returns -1 if that wiring contains a loop and so is not a tree
+  int treeDiameter(PackedBoard wires, int start) {
+    int[] order = this.queue;
+    int[] height = this.dist;
+    int[] parent = this.parent;
+    int[] stamp = this.stamp;
+    byte[] links = wires.links();
+    int[] offsets = wires.offsets;
+    this.nextEpoch();
+    int epoch = this.epoch;
+
+    // In a tree every tile is reached only from its parent, so meeting an already-visited
+    // tile that is not the parent means the wiring has a loop
+    order[0] = start;
+    stamp[start] = epoch;
+    parent[start] = -1;
+    int head = 0;
+    int tail = 1;
+    while (head < tail) {
+      int current = order[head++];
+      height[current] = 0;
+      int open = links[current];
+      while (open != 0) {
+        int n = current + offsets[Integer.numberOfTrailingZeros(open)];
+        open &= open - 1;
+        if (n == parent[current]) {
+          continue;
+        }
+        if (stamp[n] == epoch) {
+          return -1;
+        }
+        stamp[n] = epoch;
+        parent[n] = current;
+        order[tail++] = n;
+      }
+    }
+
+    // Parents come before their children in the visiting order, so walking it backwards
+    // finishes every subtree before its root and pairs the two tallest subtrees at each tile
+    int diameter = 0;
+    for (int i = tail - 1; i > 0; i--) {
+      int current = order[i];
+      int p = parent[current];
+      int reach = height[current] + 1;
+      diameter = Math.max(diameter, height[p] + reach);
+      height[p] = Math.max(height[p], reach);
+    }
+    return diameter;
+  }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Saves and loads boards in a compact binary format. A board is a 28-byte header, big-endian:
+//   int magic, byte version, byte flags, short reserved,
+//   int width, int height, int powerCol, int powerRow, int radius
+// followed by the wire masks of every tile in row-major order, packed two per byte with the
+// even tile in the low nibble. Loading maps the file read-only and wraps it in a MappedBoard,
+// so no masks are copied until the player first rotates a tile, and the file never changes.
+class BoardCodec {
+  static final int MAGIC = 0x4C454D42; // "LEMB"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 28;
+  static final int FRACTAL = 1; // flag for boards wired by the fractal layout
+  static final int UNBOUNDED = 2; // flag for boards whose radius never cuts a connected tile off
+  static final int RANDOM_TREE = 4; // flag for boards wired as a random spanning tree
+
+  // Purpose: Computes how many bytes a board of the given size takes once encoded
+  static long encodedSize(int width, int height) {
+    return HEADER_BYTES + (((long) width * height + 1) >>> 1);
+  }
+
+  // Purpose: Writes the given game's board at the current position of the buffer
+  static void encode(LightEmAll game, ByteBuffer out) {
+    PackedBoard wires = game.wires;
+    out.putInt(MAGIC);
+    out.put((byte) VERSION);
+    int layout = game.layout == LightEmAll.FRACTAL ? FRACTAL
+      : game.layout == LightEmAll.RANDOM_TREE ? RANDOM_TREE : 0;
+    out.put((byte) (layout | (game.unboundedRadius ? UNBOUNDED : 0)));
+    out.putShort((short) 0);
+    out.putInt(wires.width);
+    out.putInt(wires.height);
+    out.putInt(game.powerCol);
+    out.putInt(game.powerRow);
+    out.putInt(game.radius);
+
+    int size = wires.size();
+    for (int i = 0; i + 1 < size; i += 2) {
+      out.put((byte) (wires.mask(i) | (wires.mask(i + 1) << 4)));
+    }
+    if ((size & 1) != 0) {
+      out.put((byte) wires.mask(size - 1));
+    }
+  }
+
+  // Purpose: Reads a game from the buffer, which must start at a board's header. The game
+  // plays directly on the buffer's bytes
+  static LightEmAll decode(ByteBuffer in) throws IOException {
+    if (in.remaining() < HEADER_BYTES || in.getInt(in.position()) != MAGIC) {
+      throw new IOException("Not a board");
+    }
+    int start = in.position();
+    int version = in.get(start + 4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported board version " + version);
+    }
+    int flags = in.get(start + 5);
+    int width = in.getInt(start + 8);
+    int height = in.getInt(start + 12);
+    int powerCol = in.getInt(start + 16);
+    int powerRow = in.getInt(start + 20);
+    int radius = in.getInt(start + 24);
+    if (width <= 0 || height <= 0 || powerCol < 0 || powerCol >= width || powerRow < 0
+      || powerRow >= height || in.remaining() < encodedSize(width, height)) {
+      throw new IOException("Corrupt board header");
+    }
+
+    int bytes = (int) (encodedSize(width, height) - HEADER_BYTES);
+    MappedBoard wires = new MappedBoard(width, height, in.slice(start + HEADER_BYTES, bytes));
+    LightEmAll game = new LightEmAll(wires, powerCol, powerRow, radius);
+    game.layout = (flags & RANDOM_TREE) != 0 ? LightEmAll.RANDOM_TREE
+      : (flags & FRACTAL) != 0 ? LightEmAll.FRACTAL : LightEmAll.MANUAL;
+    game.unboundedRadius = (flags & UNBOUNDED) != 0;
+    return game;
+  }
+
+  // Purpose: Saves the given game's board to a file
+  static void save(LightEmAll game, Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+      StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+        encodedSize(game.width, game.height));
+      encode(game, out);
+      out.force();
+    }
+  }
+
+  // Purpose: Loads the board saved in the given file, mapping it rather than reading it
+  static LightEmAll load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // A mapping stays valid after its channel is closed
+      return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+}
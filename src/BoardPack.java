@@ -0,0 +1,91 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// A file holding many boards in the BoardCodec format, with an index that opens any of them
+// without reading the others. The file starts with a 16-byte header, big-endian:
+//   int magic, int version, int count, int reserved
+// then count + 1 long offsets, where board i spans offsets i to i + 1, then the boards.
+class BoardPack implements Closeable {
+  static final int MAGIC = 0x4C454D50; // "LEMP"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 16;
+
+  FileChannel channel; // the pack being read
+  LongBuffer offsets; // where each board starts, followed by where the last one ends
+  int count; // number of boards in the pack
+
+  // Opens the pack in the given file, mapping only its index
+  BoardPack(Path file) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    MappedByteBuffer header = this.channel.size() < HEADER_BYTES ? null
+      : this.channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+    if (header == null || header.getInt() != MAGIC) {
+      this.channel.close();
+      throw new IOException("Not a board pack: " + file);
+    }
+    int version = header.getInt();
+    this.count = header.getInt();
+    if (version != VERSION || this.count < 0
+      || HEADER_BYTES + 8L * (this.count + 1) > this.channel.size()) {
+      this.channel.close();
+      throw new IOException("Corrupt board pack: " + file);
+    }
+    this.offsets = this.channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+      8L * (this.count + 1)).asLongBuffer();
+  }
+
+  // Purpose: Opens the board at the given position in the pack, mapping just its bytes
+  LightEmAll open(int i) throws IOException {
+    if (i < 0 || i >= this.count) {
+      throw new IndexOutOfBoundsException("Board " + i + " of " + this.count);
+    }
+    long start = this.offsets.get(i);
+    long end = this.offsets.get(i + 1);
+    if (start < 0 || end < start || end > this.channel.size()) {
+      throw new IOException("Corrupt board pack index at board " + i);
+    }
+    return BoardCodec.decode(this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+  }
+
+  // Purpose: Closes the pack. Boards already opened stay usable
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  // Purpose: Writes the given games' boards to a new pack file
+  static void write(Path file, List<LightEmAll> games) throws IOException {
+    long[] offsets = new long[games.size() + 1];
+    offsets[0] = HEADER_BYTES + 8L * offsets.length;
+    for (int i = 0; i < games.size(); i++) {
+      LightEmAll game = games.get(i);
+      offsets[i + 1] = offsets[i] + BoardCodec.encodedSize(game.width, game.height);
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+      StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, 0, offsets[0]);
+      index.putInt(MAGIC);
+      index.putInt(VERSION);
+      index.putInt(games.size());
+      index.putInt(0);
+      for (long offset : offsets) {
+        index.putLong(offset);
+      }
+      index.force();
+
+      // Each board gets its own mapping, so packs can grow past what one buffer can address
+      for (int i = 0; i < games.size(); i++) {
+        MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, offsets[i],
+          offsets[i + 1] - offsets[i]);
+        BoardCodec.encode(games.get(i), out);
+        out.force();
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writes a known number of same-sized boards from a PuzzleFactory into a BoardPack file. Every
+// board takes the same number of bytes, so the index is written up front and each board goes
+// straight to its own slot, whatever order the factory finishes them in.
+class BoardPackSink implements PuzzleSink, Closeable {
+  FileChannel channel; // the pack being written
+  long dataStart; // offset of the first board
+  long boardBytes; // encoded size of every board
+
+  // Creates a pack file for the given number of boards of the given size
+  BoardPackSink(Path file, int count, int width, int height) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING);
+    this.dataStart = BoardPack.HEADER_BYTES + 8L * (count + 1);
+    this.boardBytes = BoardCodec.encodedSize(width, height);
+
+    ByteBuffer index = ByteBuffer.allocate((int) this.dataStart);
+    index.putInt(BoardPack.MAGIC);
+    index.putInt(BoardPack.VERSION);
+    index.putInt(count);
+    index.putInt(0);
+    for (int i = 0; i <= count; i++) {
+      index.putLong(this.dataStart + i * this.boardBytes);
+    }
+    index.flip();
+    this.write(index, 0);
+  }
+
+  // Purpose: Writes the board with the given number into its slot
+  public void accept(long index, ByteBuffer board) throws IOException {
+    this.write(board, this.dataStart + index * this.boardBytes);
+  }
+
+  // Purpose: Writes all of the buffer at the given offset of the file
+  void write(ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      offset += this.channel.write(buffer, offset);
+    }
+  }
+
+  // Purpose: Closes the pack file
+  public void close() throws IOException {
+    this.channel.close();
+  }
+}
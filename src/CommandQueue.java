@@ -0,0 +1,57 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+// A lock-free queue of int commands with any number of producers and a single consumer. It is
+// a linked list whose last node producers claim with one atomic swap and then link to the one
+// before it, so offering never waits for another thread. The consumer keeps the first node to
+// itself and walks the links from there. A producer that has swapped but not yet linked its
+// node hides it, and every node behind it, until it links; the consumer just sees an empty
+// queue, and the producer's next step is to make sure the consumer looks again.
+class CommandQueue {
+  AtomicReference<CommandNode> last; // node most recently claimed by a producer
+  CommandNode first; // node before the next command to take, touched only by the consumer
+
+  // Creates an empty queue
+  CommandQueue() {
+    CommandNode stub = new CommandNode(0);
+    this.last = new AtomicReference<CommandNode>(stub);
+    this.first = stub;
+  }
+
+  // Purpose: Adds a command at the end of the queue. Safe to call from any thread
+  void offer(int command) {
+    CommandNode node = new CommandNode(command);
+    this.last.getAndSet(node).next = node;
+  }
+
+  // Purpose: Moves up to max commands from the front of the queue into out, in order, and
+  // returns how many. Only the consumer may call it
+  int drainTo(int[] out, int max) {
+    CommandNode node = this.first;
+    int count = 0;
+    while (count < max) {
+      CommandNode next = node.next;
+      if (next == null) {
+        break;
+      }
+      out[count++] = next.command;
+      node = next;
+    }
+    this.first = node;
+    return count;
+  }
+
+  // Purpose: Checks whether the consumer would find no command to take right now
+  boolean isEmpty() {
+    return this.first.next == null;
+  }
+}
+
+// One command in a CommandQueue
+class CommandNode {
+  int command; // the queued command
+  volatile CommandNode next; // the command after this one, or null until a producer links it
+
+  CommandNode(int command) {
+    this.command = command;
+  }
+}
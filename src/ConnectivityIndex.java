@@ -0,0 +1,95 @@
+// Answers connectivity questions about the wiring of a PackedBoard without a BFS. It counts
+// the linked pairs of neighbors as tiles rotate, and keeps a union-find of the tiles they
+// connect. New links are merged in directly; since a union-find cannot split a set, losing a
+// link only marks the sets stale, to be rebuilt the next time a question needs them. The link
+// count stays exact either way and alone settles most win checks, since a board of n tiles
+// needs at least n - 1 links to be connected.
+class ConnectivityIndex {
+  PackedBoard wires; // the wiring being indexed
+  UnionFind sets; // tiles grouped by the links between them, unless stale or not yet built
+  int links; // number of neighboring pairs whose wires face each other, unless stale
+  boolean stale; // whether sets and links must be rebuilt before they are used
+  boolean setsStale; // whether sets alone must be rebuilt, after a link was lost
+
+  // Creates an index of the given wiring, built the first time it is used
+  ConnectivityIndex(PackedBoard wires) {
+    this.wires = wires;
+    this.stale = true;
+  }
+
+  // Purpose: Forgets everything known about the wiring, after it was changed wholesale
+  void invalidate() {
+    this.stale = true;
+  }
+
+  // Purpose: Updates the index after the tile at the given index changed its wires, given
+  // the directions it was linked in before the change
+  void changed(int index, int linkedBefore) {
+    if (this.stale) {
+      return;
+    }
+    int linkedAfter = this.wires.linkedMask(index);
+    this.links += Integer.bitCount(linkedAfter) - Integer.bitCount(linkedBefore);
+    if ((linkedBefore & ~linkedAfter) != 0) {
+      this.setsStale = true;
+    }
+    if (this.setsStale) {
+      return;
+    }
+    int added = linkedAfter & ~linkedBefore;
+    while (added != 0) {
+      int dir = Integer.numberOfTrailingZeros(added);
+      added &= added - 1;
+      this.sets.union(index, this.wires.neighbor(index, dir));
+    }
+  }
+
+  // Purpose: Rebuilds the link count and the sets from scratch if they are stale
+  void refresh() {
+    if (!this.stale && !this.setsStale) {
+      return;
+    }
+    if (this.sets == null) {
+      this.sets = new UnionFind(this.wires.size());
+    }
+    else {
+      this.sets.reset();
+    }
+    this.links = 0;
+    byte[] links = this.wires.links();
+    for (int i = 0; i < links.length; i++) {
+      if ((links[i] & (1 << PackedBoard.RIGHT)) != 0) {
+        this.sets.union(i, i + 1);
+        this.links++;
+      }
+      if ((links[i] & (1 << PackedBoard.BOTTOM)) != 0) {
+        this.sets.union(i, i + this.wires.width);
+        this.links++;
+      }
+    }
+    this.stale = false;
+    this.setsStale = false;
+  }
+
+  // Purpose: Checks whether every tile is connected to every other tile
+  boolean fullyConnected() {
+    int size = this.wires.size();
+    if (!this.stale && this.links < size - 1) {
+      return false;
+    }
+    this.refresh();
+    return this.sets.sets == 1;
+  }
+
+  // Purpose: Returns the number of tiles connected to the tile at the given index, itself included
+  int componentSize(int index) {
+    this.refresh();
+    return this.sets.size[this.sets.find(index)];
+  }
+
+  // Purpose: Checks whether the tiles at the two indices are connected through wires
+  boolean connected(int a, int b) {
+    this.refresh();
+    return this.sets.find(a) == this.sets.find(b);
+  }
+}
@@ -0,0 +1,202 @@
+import java.util.Arrays;
+
+// Distances, in steps over a board's solved wiring, from the power station to every tile, so
+// hints such as whether a tile can ever be powered from where the station stands take one
+// lookup. Generated wiring is a tree, so the distances are kept in the preorder of a search
+// from the station, where every subtree is one contiguous range. When the station steps along
+// a wire of that tree, every tile on the far side of the wire gets one step closer and every
+// other tile one step farther: a shift of the whole field plus a change of two steps to one
+// range, applied to whichever side is smaller. Wiring with loops, and station moves that do
+// not follow it, fall back to a breadth-first search from the station.
+class DistanceField {
+  PackedBoard solved; // wiring the distances are measured over
+  BfsEngine bfs; // search used to rebuild the field when the wiring is not a tree
+  boolean tree; // whether the wiring connected to the station is a tree
+  boolean stale; // whether the field must be rebuilt before it is next used
+  int station; // tile the distances are measured from
+  int count; // number of tiles connected to the station
+  int[] order; // connected tiles in preorder, from the tile the search started at
+  int[] position; // place of each tile in order, or -1 if it is not connected
+  int[] end; // for each place in order, the place just past the subtree starting there
+  int[] parent; // tile each connected tile was reached from, or -1 where the search started
+  int[] dist; // distance of the tile at each place in order, before adding offset
+  int offset; // amount added to every entry of dist
+
+  // Creates a field over the given solved wiring, measured from the given tile, sharing the
+  // given search buffers
+  DistanceField(PackedBoard solved, BfsEngine bfs, int station) {
+    int size = solved.size();
+    this.solved = solved;
+    this.bfs = bfs;
+    this.order = new int[size];
+    this.position = new int[size];
+    this.end = new int[size];
+    this.parent = new int[size];
+    this.dist = new int[size];
+    this.station = station;
+    this.stale = true;
+  }
+
+  // Purpose: Marks the field out of date, after the solved wiring was replaced
+  void invalidate() {
+    this.stale = true;
+  }
+
+  // Purpose: Returns the distance from the station to the tile at the given index over the
+  // solved wiring, or -1 if the wiring does not connect them
+  int distance(int index) {
+    this.refresh();
+    int p = this.position[index];
+    return p < 0 ? -1 : this.dist[p] + this.offset;
+  }
+
+  // Purpose: Checks whether the tile at the given index is connected to the station and no
+  // more than radius steps from it
+  boolean withinRadius(int index, int radius) {
+    int d = this.distance(index);
+    return d >= 0 && d <= radius;
+  }
+
+  // Purpose: Writes the tiles that are not within radius of the station to out, in index
+  // order, and returns how many there are
+  int outOfRange(int radius, int[] out) {
+    this.refresh();
+    int found = 0;
+    for (int i = 0; i < this.position.length; i++) {
+      int p = this.position[i];
+      if (p < 0 || this.dist[p] + this.offset > radius) {
+        out[found++] = i;
+      }
+    }
+    return found;
+  }
+
+  // Purpose: Moves the station to the given tile, updating the field in place when the move
+  // is one step along the tree and rebuilding it otherwise
+  void stationMoved(int next) {
+    int from = this.station;
+    this.station = next;
+    if (this.stale || next == from) {
+      return;
+    }
+    if (!this.tree || this.position[next] < 0) {
+      this.stale = true;
+    }
+    else if (this.parent[next] == from) {
+      // Tiles below next get closer, everything else farther
+      int p = this.position[next];
+      this.shiftRange(p, this.end[p], -1);
+    }
+    else if (this.parent[from] == next) {
+      // Tiles below the old station get farther, everything else closer
+      int p = this.position[from];
+      this.shiftRange(p, this.end[p], 1);
+    }
+    else {
+      this.stale = true;
+    }
+  }
+
+  // Purpose: Adds step to the distances of the places from start up to but not including
+  // stop and subtracts it from all others, touching whichever side has fewer places
+  void shiftRange(int start, int stop, int step) {
+    int[] dist = this.dist;
+    if (stop - start <= this.count / 2) {
+      this.offset -= step;
+      for (int p = start; p < stop; p++) {
+        dist[p] += 2 * step;
+      }
+    }
+    else {
+      this.offset += step;
+      for (int p = 0; p < start; p++) {
+        dist[p] -= 2 * step;
+      }
+      for (int p = stop; p < this.count; p++) {
+        dist[p] -= 2 * step;
+      }
+    }
+  }
+
+  // Purpose: Rebuilds the field from the station if it is stale
+  void refresh() {
+    if (!this.stale) {
+      return;
+    }
+    this.stale = false;
+    this.offset = 0;
+    Arrays.fill(this.position, -1);
+    this.tree = this.searchTree();
+    if (!this.tree) {
+      this.searchBreadthFirst();
+    }
+  }
+
+  // Purpose: Lays out the tiles connected to the station in preorder with their depths and
+  // subtree ranges, returning false as soon as the wiring turns out to have a loop
+  boolean searchTree() {
+    int[] order = this.order;
+    int[] position = this.position;
+    int[] parent = this.parent;
+    int[] dist = this.dist;
+    int[] end = this.end;
+    byte[] links = this.solved.links();
+    int[] offsets = this.solved.offsets;
+
+    // The tail of order doubles as the stack of tiles found but not yet placed. A tile is
+    // marked as found by a position past the end, so finding it twice means a loop
+    int size = order.length;
+    int placed = 0;
+    int top = size;
+    order[--top] = this.station;
+    position[this.station] = size;
+    parent[this.station] = -1;
+    while (top < size) {
+      int u = order[top++];
+      int p = placed++;
+      order[p] = u;
+      position[u] = p;
+      dist[p] = parent[u] < 0 ? 0 : dist[position[parent[u]]] + 1;
+      end[p] = 1;
+
+      int open = links[u];
+      while (open != 0) {
+        int n = u + offsets[Integer.numberOfTrailingZeros(open)];
+        open &= open - 1;
+        if (n == parent[u]) {
+          continue;
+        }
+        if (position[n] >= 0) {
+          return false;
+        }
+        position[n] = size;
+        parent[n] = u;
+        order[--top] = n;
+      }
+    }
+    this.count = placed;
+
+    // Subtree sizes add up from the leaves, which come after their parents in preorder
+    for (int p = placed - 1; p > 0; p--) {
+      end[position[parent[order[p]]]] += end[p];
+    }
+    for (int p = 0; p < placed; p++) {
+      end[p] += p;
+    }
+    return true;
+  }
+
+  // Purpose: Fills the field with a breadth-first search from the station, for wiring that is
+  // not a tree
+  void searchBreadthFirst() {
+    Arrays.fill(this.position, -1);
+    int reached = this.bfs.search(this.solved, this.station, Integer.MAX_VALUE);
+    for (int p = 0; p < reached; p++) {
+      int u = this.bfs.queue[p];
+      this.order[p] = u;
+      this.position[u] = p;
+      this.dist[p] = this.bfs.dist[u];
+    }
+    this.count = reached;
+  }
+}
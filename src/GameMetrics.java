@@ -0,0 +1,99 @@
+// Latency histograms and counters for the hot paths of one LightEmAll game. Every game has one,
+// disabled at first; while disabled each instrumented call costs a single field check, and
+// nothing is timed or counted. Set enabled to start recording, and read the results directly
+// or through snapshot, for example from a MetricsReporter.
+class GameMetrics {
+  boolean enabled; // whether anything is recorded
+
+  LatencyHistogram updatePower = new LatencyHistogram(); // full power recomputations
+  LatencyHistogram makeScene = new LatencyHistogram(); // frames drawn or patched
+  LatencyHistogram mouseClick = new LatencyHistogram(); // onMouseClicked, including power repair
+  LatencyHistogram keyEvent = new LatencyHistogram(); // onKeyEvent, including power updates
+  LatencyHistogram scramble = new LatencyHistogram(); // scrambleBoard
+  LatencyHistogram generate = new LatencyHistogram(); // laying out the wiring of a new board
+
+  long tilesVisited; // tiles reached by full power searches
+  long framesDrawn; // frames drawn from scratch
+  long framesPatched; // frames made by patching the previous scene
+  long tilesPlaced; // tile images placed onto scenes
+  long imagesCreated; // tile images drawn because the cache did not have them yet
+
+  // Purpose: Returns the current time to pass to stop, or 0 when disabled
+  long start() {
+    return this.enabled ? System.nanoTime() : 0L;
+  }
+
+  // Purpose: Records the time since the given start in the given histogram, when enabled
+  void stop(LatencyHistogram histogram, long start) {
+    if (this.enabled) {
+      histogram.record(System.nanoTime() - start);
+    }
+  }
+
+  // Purpose: Counts one full power search that reached the given number of tiles
+  void countSearch(int tiles) {
+    if (this.enabled) {
+      this.tilesVisited += tiles;
+    }
+  }
+
+  // Purpose: Counts one frame, whether it was drawn from scratch, how many tiles it placed and
+  // how many new tile images that took
+  void countFrame(boolean drawn, int placed, int created) {
+    if (this.enabled) {
+      if (drawn) {
+        this.framesDrawn++;
+      }
+      else {
+        this.framesPatched++;
+      }
+      this.tilesPlaced += placed;
+      this.imagesCreated += created;
+    }
+  }
+
+  // Purpose: Forgets everything recorded so far
+  void reset() {
+    LatencyHistogram[] all = this.histograms();
+    for (LatencyHistogram histogram : all) {
+      histogram.reset();
+    }
+    this.tilesVisited = 0;
+    this.framesDrawn = 0;
+    this.framesPatched = 0;
+    this.tilesPlaced = 0;
+    this.imagesCreated = 0;
+  }
+
+  // Purpose: Returns every histogram, in the same order as histogramNames
+  LatencyHistogram[] histograms() {
+    return new LatencyHistogram[] {this.updatePower, this.makeScene, this.mouseClick,
+      this.keyEvent, this.scramble, this.generate};
+  }
+
+  // Purpose: Returns the name of every histogram, in the same order as histograms
+  static String[] histogramNames() {
+    return new String[] {"updatePower", "makeScene", "mouseClick", "keyEvent", "scramble",
+      "generate"};
+  }
+
+  // Purpose: Formats the histograms and counters, along with the given game's power, as a
+  // plain-text table with times in microseconds
+  String snapshot(LightEmAll game) {
+    StringBuilder out = new StringBuilder();
+    out.append(String.format("%-12s %10s %10s %10s %10s %10s%n", "op", "count", "mean us",
+      "p50 us", "p99 us", "max us"));
+    LatencyHistogram[] all = this.histograms();
+    String[] names = histogramNames();
+    for (int i = 0; i < all.length; i++) {
+      LatencyHistogram h = all[i];
+      out.append(String.format("%-12s %10d %10.1f %10.1f %10.1f %10.1f%n", names[i], h.count,
+        h.mean() / 1e3, h.quantile(0.5) / 1e3, h.quantile(0.99) / 1e3, h.max / 1e3));
+    }
+    out.append(String.format("tilesVisited=%d framesDrawn=%d framesPatched=%d tilesPlaced=%d"
+      + " imagesCreated=%d poweredCount=%d/%d%n", this.tilesVisited, this.framesDrawn,
+      this.framesPatched, this.tilesPlaced, this.imagesCreated, game.poweredCount,
+      game.wires.size()));
+    return out.toString();
+  }
+}
@@ -1,62 +1,71 @@
 import java.awt.Color;
 import javalib.worldimages.*;
 
-// Represents a single tile in the LightEmAll game board, with wires that can connect to adjacent
-// tiles in any of the four cardinal directions
+// A lightweight view of a single tile in the LightEmAll game board. The wires themselves live
+// in a PackedBoard, so views can be created on demand without copying any state
 class GamePiece {
+  PackedBoard wires; // storage holding this tile's wire mask
   int row; // y-coordinate of this piece on the board
   int col; // x-coordinate of this piece on the board
-  boolean left; // whether this piece has a wire extending left
-  boolean right; // whether this piece has a wire extending right
-  boolean top; // whether this piece has a wire extending up
-  boolean bottom; // whether this piece has a wire extending down
-  boolean powerStation; // whether the power station is located on this piece
 
-  // Initializes a GamePiece at the given position with the specified wire connections
-  GamePiece(int row, int col, boolean left, boolean right, boolean top, boolean bottom) {
+  // Initializes a view of the tile at the given position on the given board
+  GamePiece(PackedBoard wires, int row, int col) {
+    this.wires = wires;
     this.row = row;
     this.col = col;
-    this.left = left;
-    this.right = right;
-    this.top = top;
-    this.bottom = bottom;
-    this.powerStation = false;
+  }
+
+  // Purpose: Returns the flat index of this piece in its board
+  int index() {
+    return this.wires.index(this.col, this.row);
+  }
+
+  // Purpose: Returns the 4-bit wire mask of this piece
+  int mask() {
+    return this.wires.mask(this.index());
+  }
+
+  // Purpose: Checks whether this piece has a wire extending in the given direction
+  boolean hasWire(int direction) {
+    return this.wires.hasWire(this.index(), direction);
+  }
+
+  // Purpose: Adds or removes this piece's wire in the given direction
+  void setWire(int direction, boolean on) {
+    this.wires.setWire(this.index(), direction, on);
   }
 
   // Purpose: Rotates this piece 90 degrees clockwise
   void rotate() {
-    boolean oldLeft = this.left;
-    boolean oldRight = this.right;
-    boolean oldTop = this.top;
-    boolean oldBottom = this.bottom;
-
-    // Clockwise rotate: left -> top, top -> right, right -> bottom, bottom -> left
-    this.top = oldLeft;
-    this.right = oldTop;
-    this.bottom = oldRight;
-    this.left = oldBottom;
+    this.wires.rotate(this.index(), 1);
   }
 
   // Purpose: Draws this tile as a WorldImage with wires in the specified color and a power station marker if applicable
   WorldImage tileImage(int size, int wireWidth, Color wireColor, boolean hasPowerStation) {
+    return drawTile(this.mask(), size, wireWidth, wireColor, hasPowerStation);
+  }
+
+  // Purpose: Draws a tile with the given wire mask, independent of any board
+  static WorldImage drawTile(int mask, int size, int wireWidth, Color wireColor,
+    boolean hasPowerStation) {
     // Tile is gray to start
     WorldImage tile = new RectangleImage(size, size, "solid", Color.DARK_GRAY);
 
     // Draws wires in each direction if they exist
-    if (this.left) {
+    if ((mask & (1 << PackedBoard.LEFT)) != 0) {
       WorldImage leftWire = new RectangleImage(size / 2, wireWidth, "solid", wireColor);
       tile = new OverlayOffsetImage(leftWire, size / 4, 0, tile);
     }
-    if (this.right) {
+    if ((mask & (1 << PackedBoard.RIGHT)) != 0) {
       WorldImage rightWire = new RectangleImage(size / 2, wireWidth, "solid", wireColor);
       tile = new OverlayOffsetImage(rightWire, -size / 4, 0, tile);
     }
 
-    if (this.top) {
+    if ((mask & (1 << PackedBoard.TOP)) != 0) {
       WorldImage topWire = new RectangleImage(wireWidth, size / 2, "solid", wireColor);
       tile = new OverlayOffsetImage(topWire, 0, size / 4, tile);
     }
-    if (this.bottom) {
+    if ((mask & (1 << PackedBoard.BOTTOM)) != 0) {
       WorldImage bottomWire = new RectangleImage(wireWidth, size / 2, "solid", wireColor);
       tile = new OverlayOffsetImage(bottomWire, 0, -size / 4, tile);
     }
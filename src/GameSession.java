@@ -0,0 +1,126 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Lets any number of threads play one LightEmAll game at once. Clicks and key presses become
+// commands on a lock-free queue, in the replay log's event format, and only one task at a time
+// ever touches the game: whichever thread queues a command while no task is scheduled hands
+// one to the executor. A task takes the commands queued so far as one batch and applies them
+// through the game's own rotation and station moves, so power is repaired in place after each
+// one, and stops as soon as the game is won. Readers see the result through an immutable
+// PowerSnapshot, replaced after every batch that changed the game, so they never wait for a
+// writer.
+class GameSession {
+  // Most commands applied by one task before it hands the session back to the executor
+  static final int MAX_BATCH = 4096;
+
+  LightEmAll game; // the game being played, touched only by the task draining commands
+  Executor executor; // runs the tasks that drain commands
+  CommandQueue commands; // commands waiting to be applied
+  AtomicBoolean scheduled; // whether a task is running or about to run for this session
+  volatile PowerSnapshot snapshot; // state of the game after the last batch that changed it
+
+  int[] batch; // commands of the batch being applied
+  long batches; // number of batches applied
+  long commandsApplied; // number of commands taken from the queue, including dropped ones
+
+  // Creates a session over the given game, whose tasks run on the given executor
+  GameSession(LightEmAll game, Executor executor) {
+    if ((long) game.width * game.height > ReplayWriter.ARGUMENT_BITS) {
+      throw new IllegalArgumentException("Board too large for a session: " + game.width + "x"
+        + game.height);
+    }
+    this.game = game;
+    this.executor = executor;
+    this.commands = new CommandQueue();
+    this.scheduled = new AtomicBoolean();
+    this.batch = new int[MAX_BATCH];
+    game.refreshPower();
+    this.snapshot = new PowerSnapshot(game, 0, 0);
+  }
+
+  // Purpose: Asks for the tile at the given position to be rotated once clockwise, ignoring
+  // positions off the board
+  void click(int col, int row) {
+    if (col >= 0 && col < this.game.width && row >= 0 && row < this.game.height) {
+      this.submit((ReplayWriter.ROTATE << 30) | (row * this.game.width + col));
+    }
+  }
+
+  // Purpose: Asks for the power station to move as the given arrow key says, ignoring other
+  // keys
+  void press(String key) {
+    int direction = LightEmAll.keyDirection(key);
+    if (direction >= 0) {
+      this.submit((ReplayWriter.MOVE << 30) | direction);
+    }
+  }
+
+  // Purpose: Queues a command and makes sure a task will apply it. Safe to call from any thread
+  void submit(int command) {
+    this.commands.offer(command);
+    if (!this.scheduled.get() && this.scheduled.compareAndSet(false, true)) {
+      this.executor.execute(this::drain);
+    }
+  }
+
+  // Purpose: Returns the state of the game after the last batch, without waiting
+  PowerSnapshot snapshot() {
+    return this.snapshot;
+  }
+
+  // Purpose: Checks whether every queued command has been applied
+  boolean idle() {
+    return !this.scheduled.get() && this.commands.isEmpty();
+  }
+
+  // Purpose: Waits until every command queued so far has been applied
+  void awaitIdle() {
+    while (!this.idle()) {
+      Thread.yield();
+    }
+  }
+
+  // Purpose: Applies one batch, then gives up the session, scheduling another task if
+  // commands arrived in the meantime
+  void drain() {
+    this.applyBatch();
+    this.scheduled.set(false);
+    if (!this.commands.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+      this.executor.execute(this::drain);
+    }
+  }
+
+  // Purpose: Applies the commands queued so far, up to MAX_BATCH, and publishes the new state
+  // if any of them changed the game. Commands after the one that wins the game are dropped
+  void applyBatch() {
+    int count = this.commands.drainTo(this.batch, MAX_BATCH);
+    if (count == 0) {
+      return;
+    }
+    LightEmAll game = this.game;
+    boolean changed = false;
+    for (int i = 0; i < count && !game.allPowered(); i++) {
+      int command = this.batch[i];
+      int argument = command & ReplayWriter.ARGUMENT_BITS;
+      if ((command >>> 30) == ReplayWriter.ROTATE) {
+        game.rotatePiece(argument % game.width, argument / game.width);
+        changed = true;
+      }
+      else {
+        int station = game.indexOf(game.powerCol, game.powerRow);
+        if (game.wires.linked(station, argument)) {
+          int next = game.wires.neighbor(station, argument);
+          game.movePowerStation(next % game.width, next / game.width);
+          game.afterStationStep();
+          changed = true;
+        }
+      }
+    }
+    this.batches++;
+    this.commandsApplied += count;
+    if (changed) {
+      game.refreshPower();
+      this.snapshot = new PowerSnapshot(game, this.batches, this.commandsApplied);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+// Repairs the powered set of a LightEmAll game after the wiring of a single tile changes.
+// Only tiles whose distance from the power station actually changes are visited, so the
+// cost of a click depends on the size of the affected region rather than on the board size.
+// The result always matches a full updatePower, including the radius cutoff.
+class IncrementalPower {
+  LightEmAll game; // the game whose powered set is repaired
+  long[] queue; // FIFO of (depth << 32 | index) entries, in nondecreasing depth order
+  long[] seeds; // (depth << 32 | index) entries that start each phase, sorted by depth
+  int seedCount; // number of entries currently in seeds
+  int[] invalid; // tiles that lost power during the current repair
+  int[] mark; // epoch of the last phase that seeded or queued each tile
+  int epoch; // current phase number, so marks never need clearing
+
+  // Creates a repairer for the given game, whose buffers are allocated on its first repair
+  IncrementalPower(LightEmAll game) {
+    this.game = game;
+    this.seeds = new long[16];
+  }
+
+  // Purpose: Updates power after the wires of the tile at the given index were changed
+  void afterChange(int changed) {
+    if (this.queue == null) {
+      int size = this.game.width * this.game.height;
+      this.queue = new long[size];
+      this.invalid = new int[size];
+      this.mark = new int[size];
+    }
+    int lost = this.invalidate(changed);
+    this.extend(changed, lost);
+  }
+
+  // Purpose: Removes power from every tile whose only shortest paths to the station went
+  // through a wire that no longer connects, returning how many tiles were invalidated
+  int invalidate(int changed) {
+    int[] depth = this.game.powerDepth;
+    this.epoch++;
+    this.seedCount = 0;
+    this.addSeed(changed);
+    for (int dir = 0; dir < 4; dir++) {
+      int n = this.game.wires.neighbor(changed, dir);
+      if (n >= 0) {
+        this.addSeed(n);
+      }
+    }
+    Arrays.sort(this.seeds, 0, this.seedCount);
+
+    // Tiles are checked in depth order, so every possible parent at depth - 1 is already final
+    int station = this.game.indexOf(this.game.powerCol, this.game.powerRow);
+    int lost = 0;
+    int head = 0;
+    int tail = 0;
+    int next = 0;
+    while (next < this.seedCount || head < tail) {
+      long entry;
+      if (head < tail && (next == this.seedCount || this.queue[head] <= this.seeds[next])) {
+        entry = this.queue[head++];
+      }
+      else {
+        entry = this.seeds[next++];
+      }
+      int u = (int) entry;
+      int d = (int) (entry >>> 32);
+      if (u == station || depth[u] != d || this.hasParent(u, d)) {
+        continue;
+      }
+
+      this.game.setUnpowered(u);
+      this.invalid[lost++] = u;
+
+      // Children that were one step farther through this tile must be checked again
+      for (int dir = 0; dir < 4; dir++) {
+        if (this.game.wires.linked(u, dir)) {
+          int w = this.game.wires.neighbor(u, dir);
+          if (depth[w] == d + 1 && this.mark[w] != this.epoch) {
+            this.mark[w] = this.epoch;
+            this.queue[tail++] = ((long) (d + 1) << 32) | w;
+          }
+        }
+      }
+    }
+    return lost;
+  }
+
+  // Purpose: Re-powers tiles from the boundary of the invalidated region and from the changed
+  // tile, lowering depths where the new wiring opened a shorter path
+  void extend(int changed, int lost) {
+    int[] depth = this.game.powerDepth;
+    this.epoch++;
+    this.seedCount = 0;
+    this.addSeed(changed);
+    for (int dir = 0; dir < 4; dir++) {
+      int n = this.game.wires.neighbor(changed, dir);
+      if (n >= 0) {
+        this.addSeed(n);
+      }
+    }
+    for (int i = 0; i < lost; i++) {
+      int u = this.invalid[i];
+      for (int dir = 0; dir < 4; dir++) {
+        if (this.game.wires.linked(u, dir)) {
+          this.addSeed(this.game.wires.neighbor(u, dir));
+        }
+      }
+    }
+    Arrays.sort(this.seeds, 0, this.seedCount);
+
+    // Merging the sorted seeds with the FIFO keeps a unit-weight Dijkstra order
+    int radius = this.game.radius;
+    int head = 0;
+    int tail = 0;
+    int next = 0;
+    while (next < this.seedCount || head < tail) {
+      long entry;
+      if (head < tail && (next == this.seedCount || this.queue[head] <= this.seeds[next])) {
+        entry = this.queue[head++];
+      }
+      else {
+        entry = this.seeds[next++];
+      }
+      int u = (int) entry;
+      int d = (int) (entry >>> 32);
+      if (depth[u] != d || d >= radius) {
+        continue;
+      }
+
+      for (int dir = 0; dir < 4; dir++) {
+        if (this.game.wires.linked(u, dir)) {
+          int w = this.game.wires.neighbor(u, dir);
+          if (depth[w] < 0 || d + 1 < depth[w]) {
+            this.game.setPowered(w, d + 1);
+            this.queue[tail++] = ((long) (d + 1) << 32) | w;
+          }
+        }
+      }
+    }
+  }
+
+  // Purpose: Checks whether the given tile is still linked to a powered tile one step closer
+  boolean hasParent(int u, int d) {
+    int[] depth = this.game.powerDepth;
+    for (int dir = 0; dir < 4; dir++) {
+      if (this.game.wires.linked(u, dir) && depth[this.game.wires.neighbor(u, dir)] == d - 1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Purpose: Adds a powered tile to the seeds of the current phase, at most once
+  void addSeed(int index) {
+    int d = this.game.powerDepth[index];
+    if (d < 0 || this.mark[index] == this.epoch) {
+      return;
+    }
+    this.mark[index] = this.epoch;
+    if (this.seedCount == this.seeds.length) {
+      this.seeds = Arrays.copyOf(this.seeds, this.seedCount * 2);
+    }
+    this.seeds[this.seedCount++] = ((long) d << 32) | index;
+  }
+}
@@ -0,0 +1,83 @@
+import java.util.Arrays;
+
+// What each key does in the game. Keys are laid out in a small open-addressed table keyed by
+// their string hash, so dispatching a key event is one hash, which strings cache, and usually
+// a single comparison, with nothing allocated. Directions are the PackedBoard constants, the
+// same numbers the station moves and the replay log use.
+class KeyBindings {
+  // Action of the key that undoes the last journaled action
+  static final int UNDO = 4;
+  // Action of the key that redoes the last undone action
+  static final int REDO = 5;
+  // Action of keys the game ignores
+  static final int NONE = -1;
+  // Key bound to each action: the four directions, then UNDO and REDO
+  static final String[] KEYS = {"left", "up", "right", "down", "z", "y"};
+  // Slots in the table, a power of two well above the number of keys
+  static final int SLOTS = 16;
+  // Key in each slot, or null where the slot is empty
+  static final String[] SLOT_KEYS = slotKeys();
+  // Action of the key in each slot
+  static final int[] SLOT_ACTIONS = slotActions();
+
+  // Purpose: Returns the action of the given key, or NONE if it has none
+  static int action(String key) {
+    for (int s = slotOf(key); ; s = (s + 1) & (SLOTS - 1)) {
+      String bound = SLOT_KEYS[s];
+      if (bound == null) {
+        return NONE;
+      }
+      if (bound.equals(key)) {
+        return SLOT_ACTIONS[s];
+      }
+    }
+  }
+
+  // Purpose: Returns the direction the given key moves the station, or -1 if it does not
+  static int direction(String key) {
+    int action = action(key);
+    return action <= PackedBoard.BOTTOM ? action : NONE;
+  }
+
+  // Purpose: Returns the slot where the search for the given key starts
+  static int slotOf(String key) {
+    int h = key.hashCode();
+    return (h ^ (h >>> 16)) & (SLOTS - 1);
+  }
+
+  // Purpose: Returns the slot each bound key ends up in, in the order of KEYS
+  static int[] placement() {
+    boolean[] taken = new boolean[SLOTS];
+    int[] placed = new int[KEYS.length];
+    for (int action = 0; action < KEYS.length; action++) {
+      int s = slotOf(KEYS[action]);
+      while (taken[s]) {
+        s = (s + 1) & (SLOTS - 1);
+      }
+      taken[s] = true;
+      placed[action] = s;
+    }
+    return placed;
+  }
+
+  // Purpose: Builds the key of every slot, null where the slot is empty
+  static String[] slotKeys() {
+    String[] keys = new String[SLOTS];
+    int[] placed = placement();
+    for (int action = 0; action < KEYS.length; action++) {
+      keys[placed[action]] = KEYS[action];
+    }
+    return keys;
+  }
+
+  // Purpose: Builds the action of every slot, NONE where the slot is empty
+  static int[] slotActions() {
+    int[] actions = new int[SLOTS];
+    Arrays.fill(actions, NONE);
+    int[] placed = placement();
+    for (int action = 0; action < KEYS.length; action++) {
+      actions[placed[action]] = action;
+    }
+    return actions;
+  }
+}
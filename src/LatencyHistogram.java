@@ -0,0 +1,85 @@
+import java.util.Arrays;
+
+// Counts recorded values, such as latencies in nanoseconds, in log-linear buckets: every power
+// of two is split into 8 equal buckets, so any value is known to within 12.5% using a fixed
+// array of 488 counts. Recording is a few arithmetic operations and never allocates. A
+// histogram is written by one thread; snapshots read from another may lag slightly behind.
+class LatencyHistogram {
+  static final int SUB_BITS = 3; // log2 of the number of buckets per power of two
+  static final int SUB_COUNT = 1 << SUB_BITS;
+  // Buckets needed for values up to Long.MAX_VALUE, whose highest set bit is bit 62
+  static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_COUNT;
+
+  long[] counts; // number of values recorded in each bucket
+  long count; // number of values recorded
+  long sum; // total of the values recorded
+  long max; // largest value recorded
+
+  // Creates an empty histogram
+  LatencyHistogram() {
+    this.counts = new long[BUCKETS];
+  }
+
+  // Purpose: Records one value; negative values count as zero
+  void record(long value) {
+    long v = Math.max(value, 0L);
+    this.counts[bucketOf(v)]++;
+    this.count++;
+    this.sum += v;
+    if (v > this.max) {
+      this.max = v;
+    }
+  }
+
+  // Purpose: Forgets every recorded value
+  void reset() {
+    Arrays.fill(this.counts, 0L);
+    this.count = 0;
+    this.sum = 0;
+    this.max = 0;
+  }
+
+  // Purpose: Returns the mean of the recorded values, or 0 if there are none
+  double mean() {
+    return this.count == 0 ? 0 : (double) this.sum / this.count;
+  }
+
+  // Purpose: Returns a value at least as large as the given fraction of the recorded values,
+  // and within 12.5% of the true quantile, or 0 if nothing was recorded
+  long quantile(double fraction) {
+    long rank = Math.max(1, (long) Math.ceil(fraction * this.count));
+    long seen = 0;
+    for (int b = 0; b < this.counts.length; b++) {
+      seen += this.counts[b];
+      if (seen >= rank) {
+        return Math.min(highestValue(b), this.max);
+      }
+    }
+    return this.max;
+  }
+
+  // Purpose: Computes the bucket that holds the given non-negative value
+  static int bucketOf(long value) {
+    if (value < SUB_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+    return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  // Purpose: Computes the smallest value that falls in the given bucket
+  static long lowestValue(int bucket) {
+    if (bucket < SUB_COUNT) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+    return (1L << exponent) | ((long) (bucket % SUB_COUNT) << (exponent - SUB_BITS));
+  }
+
+  // Purpose: Computes the largest value that falls in the given bucket
+  static long highestValue(int bucket) {
+    return bucket == BUCKETS - 1 ? Long.MAX_VALUE
+      : lowestValue(bucket + 1) - 1;
+  }
+}
@@ -1,151 +1,349 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import tester.*;
 import javalib.impworld.*;
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 import javalib.worldimages.*;
 
 // Represents a game of LightEmAll, where the player rotates tiles to connect
 // all pieces to a power station and light up the entire board.
-// The board can either be manually generated or generated recursively (fractal).
+// The board can be manually generated, generated recursively (fractal), or wired as a random
+// spanning tree.
 class LightEmAll extends World {
-
-  ArrayList<ArrayList<GamePiece>> board; // 2D board
-  ArrayList<GamePiece> nodes;// flat list of all tiles (used for win checks)
-  ArrayList<GamePiece> poweredPieces; // tiles currently receiving power
+  // Ways of laying out the wiring of a new board, numbered as they are stored in replay logs
+  static final int MANUAL = 0;
+  static final int FRACTAL = 1;
+  static final int RANDOM_TREE = 2;
+  // Names of the layouts on the command line, by layout number
+  static final String[] LAYOUT_NAMES = {"manual", "fractal", "random"};
+  // Number of consecutive tiles scrambled by one random stream. It is even, so no two chunks
+  // write the same byte of a MappedBoard
+  static final int SCRAMBLE_CHUNK = 1 << 14;
+  // Wire colors of tiles powered by each station, by station number, repeating if there are more
+  static final Color[] STATION_COLORS = {Color.YELLOW, Color.ORANGE, Color.CYAN, Color.MAGENTA,
+    Color.GREEN, Color.PINK};
+  // Default for parallelPowerTiles when there is more than one processor to share the work
+  static final int PARALLEL_POWER_TILES = 1 << 20;
+  // Width and height of a tile on screen in pixels, unless setTileSize changes it
+  static final int TILE_SIZE = 50;
+
+  PackedBoard wires; // wire mask of every tile, indexed row * width + col
+  long[] poweredBits; // tiles currently receiving power, one bit per tile at row * width + col
+  int poweredCount; // number of bits set in poweredBits
+  int[] powerDepth; // steps from the power station to each powered tile, or -1 if unpowered
+  BfsEngine bfs; // reusable search buffers shared by updatePower and the radius searches
+  ParallelBfs parallelBfs; // search used by updatePower on large boards, or null until needed
+  int parallelPowerTiles; // boards with at least this many tiles update power in parallel
+  GameMetrics metrics; // latencies and counters of the hot paths, recorded only when enabled
+  IncrementalPower repair; // repairs the powered set after a single rotation
+  ConnectivityIndex connectivity; // union-find view of the wiring, used when radius is unbounded
+  boolean unboundedRadius; // whether every tile connected to the station is within radius
+  boolean powerStale; // whether poweredBits lags behind the wiring until the next refreshPower
+  TileImageCache tileImages; // shared tile images used by makeScene
+  int tileSize; // width and height of a tile on screen in pixels
+  TileGrid grid; // screen layout of the tiles at tileSize, or null until drawn or clicked
+  boolean reuseScene; // whether makeScene patches the previous scene instead of redrawing it
+  WorldScene scene; // last scene returned by makeScene, or null if it must be redrawn
+  boolean sceneShowsWin; // whether the win message is part of scene
+  int scenePlacements; // images placed on scene since it was drawn from scratch
+  long[] dirtyBits; // tiles that changed since scene was last brought up to date
+  int[] dirtyTiles; // the tiles marked in dirtyBits, in the order they changed, grown as needed
+  int dirtyCount; // number of entries in dirtyTiles
+  long[] previousBits; // scratch copy of poweredBits used to find tiles updatePower flipped
 
   int width; // number of columns
   int height; // number of rows
   int powerRow; // current row of power station
   int powerCol; // current column of power station
   int radius; // max number of steps power can travel
+  int extraStations; // number of power stations besides the one at powerCol, powerRow
+  int[] stationTiles; // tile index of each station by number, where 0 is the main station
+  int[] stationRadii; // radius of each station by number, where 0 is the main station
+  long[] stationBits; // tiles holding an extra station, or null while there are none
+  int[] powerOwner; // number of the station powering each tile, valid for powered tiles while
+                    // there are extra stations
+  long seed; // seed that determines how scrambleBoard rotates the tiles
+  boolean seeded; // whether generate(seed) laid out and scrambled the board, so the seed alone
+                  // rebuilds it
+  int layout; // how the board was wired: MANUAL, FRACTAL or RANDOM_TREE
+  RandomTreeWiring treeWiring; // buffers of the random tree layout, or null until it is used
+  ReplayWriter recorder; // log of the inputs this game accepts, or null if not recording
+  UndoJournal journal; // inputs that can be undone and redone, or null if not kept
+  byte[] solution; // wire masks before scrambling, or null until known for a loaded board
+  DistanceField distances; // distances over the solution from the station, or null until a
+                           // hint needs them
 
   // Constructs a manual board with the given dimensions
   LightEmAll(int width, int height) {
-    this.width = width;
-    this.height = height;
-    this.board = new ArrayList<ArrayList<GamePiece>>();
-    this.nodes = new ArrayList<GamePiece>();
-    this.poweredPieces = new ArrayList<GamePiece>();
-
-    // Build the fixed board layout
-    this.initializeManualBoard();
-
-    // Place power station at center of board
-    this.powerCol = width / 2;
-    this.powerRow = height / 2;
-    this.board.get(this.powerCol).get(this.powerRow).powerStation = true;
+    this(width, height, false);
+  }
 
-    // Large radius so power can reach everything
-    this.radius = width + height;
+  // Constructs a fractal board with the given dimensions
+  LightEmAll(int width, int height, boolean fractal) {
+    this(width, height, fractal, new SplittableRandom().nextLong());
+  }
 
-    // Randomize tile rotations to create the puzzle
-    this.scrambleBoard();
+  // Constructs a board with the given dimensions and layout
+  LightEmAll(int width, int height, int layout) {
+    this(width, height, layout, new SplittableRandom().nextLong());
+  }
 
-    this.updatePower();
+  // Constructs a fractal or manual board whose scramble is determined by the given seed
+  LightEmAll(int width, int height, boolean fractal, long seed) {
+    this(width, height, fractal ? FRACTAL : MANUAL, seed);
   }
 
-  // Constructs a fractal board with the given dimensions
-  LightEmAll(int width, int height, boolean fractal) {
+  // Constructs a board with the given layout, whose wiring (for a random tree) and scramble
+  // are determined by the given seed
+  LightEmAll(int width, int height, int layout, long seed) {
+    if (layout < MANUAL || layout > RANDOM_TREE) {
+      throw new IllegalArgumentException("Unknown layout: " + layout);
+    }
     this.width = width;
     this.height = height;
-    this.board = new ArrayList<ArrayList<GamePiece>>();
-    this.nodes = new ArrayList<GamePiece>();
-    this.poweredPieces = new ArrayList<GamePiece>();
+    this.layout = layout;
+    this.allocate();
+    this.generate(seed);
+  }
+
+  // Purpose: Returns the layout number with the given command-line name
+  static int layoutNamed(String name) {
+    for (int layout = 0; layout < LAYOUT_NAMES.length; layout++) {
+      if (LAYOUT_NAMES[layout].equals(name)) {
+        return layout;
+      }
+    }
+    throw new IllegalArgumentException("Unknown layout: " + name);
+  }
+
+  // Purpose: Lays out a new puzzle of this game's size and layout in place, scrambled by the
+  // given seed, reusing every buffer of the previous one
+  void generate(long seed) {
+    int width = this.width;
+    int height = this.height;
+    this.seed = seed;
 
-    if (fractal) {
+    if (this.layout == RANDOM_TREE) {
+      // Wire a different spanning tree for every seed
+      long start = this.metrics.start();
+      this.initializeRandomTreeBoard(seed);
+      this.metrics.stop(this.metrics.generate, start);
+
+      // Power station starts at the center of the board
+      this.powerCol = width / 2;
+      this.powerRow = height / 2;
+
+      // The wiring is a tree, so its radius takes one more linear traversal
+      this.radius = this.calculateRadius();
+      this.unboundedRadius = this.radius >= this.wires.size() - 1;
+    }
+    else if (this.layout == FRACTAL) {
       // Creates an empty board, then add wires recursively
+      long start = this.metrics.start();
       this.initializeFractalBoard();
+      this.metrics.stop(this.metrics.generate, start);
 
       // Power station starts at the middle of the top row
       this.powerCol = width / 2;
       this.powerRow = 0;
-      this.board.get(this.powerCol).get(this.powerRow).powerStation = true;
 
       // Radius depends on how long the wiring actually is
       this.radius = this.calculateRadius();
+      this.unboundedRadius = this.radius >= this.wires.size() - 1;
     }
     else {
+      // Build the fixed board layout
+      long start = this.metrics.start();
       this.initializeManualBoard();
+      this.metrics.stop(this.metrics.generate, start);
 
+      // Place power station at center of board
       this.powerCol = width / 2;
       this.powerRow = height / 2;
-      this.board.get(this.powerCol).get(this.powerRow).powerStation = true;
 
+      // Large radius so power can reach everything. Paths can only turn in the middle column,
+      // so no connected tile is ever more than height - 1 + width / 2 steps from the station
       this.radius = width + height;
+      this.unboundedRadius = true;
     }
 
+    // Remember the solved wiring for hints, then randomize tile rotations to create the puzzle
+    this.recordSolution();
     this.scrambleBoard();
+    this.seeded = true;
     this.updatePower();
+    if (this.journal != null) {
+      this.journal.clear();
+    }
+  }
+
+  // Purpose: Copies the current wiring as the board's solution, reusing the previous copy
+  void recordSolution() {
+    int size = this.wires.size();
+    if (this.solution == null) {
+      this.solution = new byte[size];
+    }
+    for (int i = 0; i < size; i++) {
+      this.solution[i] = (byte) this.wires.mask(i);
+    }
+    if (this.distances != null) {
+      this.distances.solved.dropLinks();
+      this.distances.station = this.indexOf(this.powerCol, this.powerRow);
+      this.distances.invalidate();
+    }
+  }
+
+  // Purpose: Returns the distances from the main station over the solved wiring, finding a
+  // solution first for a board that was loaded rather than generated. That solution may keep
+  // loops, and is only missing when no rotation of the tiles lights the whole board
+  DistanceField distanceField() {
+    if (this.solution == null) {
+      PuzzleSolution solved = new PuzzleSolver().solve(this);
+      if (solved == null) {
+        throw new IllegalStateException("Board has no solution to measure distances over");
+      }
+      byte[] solution = new byte[this.wires.size()];
+      for (int i = 0; i < solution.length; i++) {
+        solution[i] = (byte) PackedBoard.rotateMask(this.wires.mask(i), solved.rotations[i]);
+      }
+      this.solution = solution;
+    }
+    if (this.distances == null) {
+      this.distances = new DistanceField(new PackedBoard(this.width, this.height, this.solution),
+        this.bfs, this.indexOf(this.powerCol, this.powerRow));
+    }
+    return this.distances;
+  }
+
+  // Purpose: Checks whether the tile at the given position could be powered from where the
+  // main station stands once every tile is turned the right way
+  boolean reachableWhenSolved(int col, int row) {
+    return this.distanceField().withinRadius(this.indexOf(col, row), this.radius);
+  }
+
+  // Constructs a game over wiring that is already laid out and scrambled, such as a board
+  // loaded by BoardCodec, with the power station at the given position
+  LightEmAll(PackedBoard wires, int powerCol, int powerRow, int radius) {
+    this.width = wires.width;
+    this.height = wires.height;
+    this.allocate(wires);
+    this.powerCol = powerCol;
+    this.powerRow = powerRow;
+    this.radius = radius;
+    this.unboundedRadius = radius >= wires.size() - 1;
+    this.updatePower();
+  }
+
+  // Purpose: Allocates the packed wiring and power state for a width x height board
+  void allocate() {
+    if (this.width <= 0 || this.height <= 0
+      || (long) this.width * this.height > Integer.MAX_VALUE - 64) {
+      throw new IllegalArgumentException("Unsupported board size: " + this.width + "x"
+        + this.height);
+    }
+    this.allocate(new PackedBoard(this.width, this.height));
+  }
+
+  // Purpose: Allocates the power state for a board with the given wiring
+  void allocate(PackedBoard wires) {
+    int size = this.width * this.height;
+    this.wires = wires;
+    this.poweredBits = new long[(size + 63) >>> 6];
+    this.powerDepth = new int[size];
+    Arrays.fill(this.powerDepth, -1);
+    this.bfs = new BfsEngine(size);
+    this.metrics = new GameMetrics();
+    this.parallelPowerTiles = Runtime.getRuntime().availableProcessors() > 1
+      ? PARALLEL_POWER_TILES : Integer.MAX_VALUE;
+    this.repair = new IncrementalPower(this);
+    this.connectivity = new ConnectivityIndex(this.wires);
+    this.reuseScene = true;
+    this.tileSize = TILE_SIZE;
+    this.dirtyBits = new long[(size + 63) >>> 6];
+    this.dirtyTiles = new int[Math.min(size, 1024)];
+    this.previousBits = new long[(size + 63) >>> 6];
   }
 
   // Purpose: Builds the simple, non-fractal board
   void initializeManualBoard() {
-    for (int col = 0; col < this.width; col++) {
-      ArrayList<GamePiece> column = new ArrayList<GamePiece>();
-      for (int row = 0; row < this.height; row++) {
+    this.scene = null;
+    this.connectivity.invalidate();
+    int middle = this.width / 2;
+    for (int row = 0; row < this.height; row++) {
+      for (int col = 0; col < this.width; col++) {
+        int mask = 0;
 
         // Horizontal connections everywhere
-        boolean left = col > 0;
-        boolean right = col < this.width - 1;
+        if (col > 0) {
+          mask |= 1 << PackedBoard.LEFT;
+        }
+        if (col < this.width - 1) {
+          mask |= 1 << PackedBoard.RIGHT;
+        }
 
         // Vertical connections only down the middle column
-        boolean top = (col == this.width / 2) && row > 0;
-        boolean bottom = (col == this.width / 2) && row < this.height - 1;
+        if (col == middle && row > 0) {
+          mask |= 1 << PackedBoard.TOP;
+        }
+        if (col == middle && row < this.height - 1) {
+          mask |= 1 << PackedBoard.BOTTOM;
+        }
 
-        GamePiece piece = new GamePiece(row, col, left, right, top, bottom);
-        column.add(piece);
-        this.nodes.add(piece);
+        this.wires.setMask(this.indexOf(col, row), mask);
       }
-      this.board.add(column);
     }
   }
 
   // Purpose: Initializes an empty board, then fills it with fractal wiring
   void initializeFractalBoard() {
-    for (int col = 0; col < this.width; col++) {
-      ArrayList<GamePiece> column = new ArrayList<GamePiece>();
-      for (int row = 0; row < this.height; row++) {
-
-        // Start with no connections; recursion adds them later
-        GamePiece piece = new GamePiece(row, col, false, false, false, false);
-        column.add(piece);
-        this.nodes.add(piece);
-      }
-      this.board.add(column);
+    this.scene = null;
+    this.connectivity.invalidate();
+    // Start with no connections; recursion adds them later
+    this.wires.clear();
+
+    // Large boards split their quadrants across the common fork/join pool
+    if (this.wires.size() >= ParallelFractalWiring.THRESHOLD && this.wires.concurrentWritable()) {
+      ForkJoinPool.commonPool().invoke(
+        new ParallelFractalWiring(this, 0, 0, this.width, this.height));
+    }
+    else {
+      this.generateFractalWiring(0, 0, this.width, this.height);
     }
+  }
 
-    this.generateFractalWiring(0, 0, this.width, this.height);
+  // Purpose: Wires the board as a random spanning tree of the grid, chosen by the given seed
+  void initializeRandomTreeBoard(long seed) {
+    this.scene = null;
+    this.connectivity.invalidate();
+    if (this.treeWiring == null) {
+      this.treeWiring = new RandomTreeWiring(this.wires);
+    }
+    // Mixed so the tree does not share a random stream with the scramble
+    this.treeWiring.wire(this.wires, seed ^ 0xD1B54A32D192ED03L);
   }
 
   // Purpose: Recursively subdivides the board and connects sub-regions together
   void generateFractalWiring(int startCol, int startRow, int regionWidth, int regionHeight) {
-    // Nothing to do for invalid regions
-    if (regionWidth <= 0 || regionHeight <= 0) {
-      return;
-    }
-
-    // Base cases: region is too small to split further
-    if (regionWidth == 1 && regionHeight == 1) {
-      return;
-    }
-    if (regionWidth == 1) {
-      this.createBasePattern(startCol, startRow, 1, regionHeight);
-      return;
-    }
-    if (regionHeight == 1) {
-      this.createBasePattern(startCol, startRow, regionWidth, 1);
-      return;
-    }
-    if (regionWidth == 2 && regionHeight == 2) {
-      this.createBasePattern(startCol, startRow, 2, 2);
+    if (this.wireFractalBase(startCol, startRow, regionWidth, regionHeight)) {
       return;
     }
 
     // Split the region roughly in half
-    int leftWidth = regionWidth / 2;
-    int topHeight = regionHeight / 2;
-    if (leftWidth == 0) leftWidth = 1;
-    if (topHeight == 0) topHeight = 1;
+    int leftWidth = fractalSplit(regionWidth);
+    int topHeight = fractalSplit(regionHeight);
 
     int rightWidth = regionWidth - leftWidth;
     int bottomHeight = regionHeight - topHeight;
@@ -159,35 +357,61 @@ class LightEmAll extends World {
     this.generateFractalWiring(startCol, midRow, leftWidth, bottomHeight);
     this.generateFractalWiring(midCol, midRow, rightWidth, bottomHeight);
 
-    // Connect the quadrants together along the outer edges
+    this.stitchFractalQuadrants(startCol, startRow, regionWidth, regionHeight, midCol, midRow);
+  }
 
+  // Purpose: Wires a region that is too small to split further, returning true if it was one
+  boolean wireFractalBase(int startCol, int startRow, int regionWidth, int regionHeight) {
+    // Nothing to do for invalid regions
+    if (regionWidth <= 0 || regionHeight <= 0) {
+      return true;
+    }
+
+    // Base cases: region is too small to split further
+    if (regionWidth == 1 && regionHeight == 1) {
+      return true;
+    }
+    if (regionWidth == 1) {
+      this.createBasePattern(startCol, startRow, 1, regionHeight);
+      return true;
+    }
+    if (regionHeight == 1) {
+      this.createBasePattern(startCol, startRow, regionWidth, 1);
+      return true;
+    }
+    if (regionWidth == 2 && regionHeight == 2) {
+      this.createBasePattern(startCol, startRow, 2, 2);
+      return true;
+    }
+    return false;
+  }
+
+  // Purpose: Computes the length of the first half when a fractal region is split
+  static int fractalSplit(int length) {
+    return Math.max(length / 2, 1);
+  }
+
+  // Purpose: Connects the four wired quadrants of a region together along its outer edges
+  void stitchFractalQuadrants(int startCol, int startRow, int regionWidth, int regionHeight,
+    int midCol, int midRow) {
     // Left edge: connect top-left to bottom-left
     int leftEdgeCol = startCol;
     if (midRow - 1 >= 0 && midRow < this.height) {
-      GamePiece a = this.board.get(leftEdgeCol).get(midRow - 1);
-      GamePiece b = this.board.get(leftEdgeCol).get(midRow);
-      a.bottom = true;
-      b.top = true;
+      this.wires.connect(this.indexOf(leftEdgeCol, midRow - 1), PackedBoard.BOTTOM);
     }
 
     // Right edge: connect top-right to bottom-right
     int rightEdgeCol = startCol + regionWidth - 1;
     if (rightEdgeCol >= 0 && rightEdgeCol < this.width
       && midRow - 1 >= 0 && midRow < this.height) {
-      GamePiece a = this.board.get(rightEdgeCol).get(midRow - 1);
-      GamePiece b = this.board.get(rightEdgeCol).get(midRow);
-      a.bottom = true;
-      b.top = true;
+      this.wires.connect(this.indexOf(rightEdgeCol, midRow - 1), PackedBoard.BOTTOM);
     }
 
     // Bottom edge: connect bottom-left to bottom-right
     int bottomEdgeRow = startRow + regionHeight - 1;
     if (bottomEdgeRow >= 0 && bottomEdgeRow < this.height
       && midCol - 1 >= 0 && midCol < this.width) {
-      GamePiece a = this.board.get(midCol - 1).get(bottomEdgeRow);
-      GamePiece b = this.board.get(midCol).get(bottomEdgeRow);
-      a.right = true;
-      b.left = true;
+      this.wires.connect(this.indexOf(midCol - 1, bottomEdgeRow), PackedBoard.RIGHT);
     }
   }
 
@@ -196,37 +420,31 @@ class LightEmAll extends World {
 
     // 2x2 case: make a squared U-shape
     if (width == 2 && height == 2) {
-      GamePiece topLeft = this.board.get(startCol).get(startRow);
-      GamePiece topRight = this.board.get(startCol + 1).get(startRow);
-      GamePiece bottomLeft = this.board.get(startCol).get(startRow + 1);
-      GamePiece bottomRight = this.board.get(startCol + 1).get(startRow + 1);
+      int topLeft = this.indexOf(startCol, startRow);
+      int topRight = this.indexOf(startCol + 1, startRow);
+      int bottomLeft = this.indexOf(startCol, startRow + 1);
 
       // Left side vertical
-      topLeft.bottom = true;
-      bottomLeft.top = true;
+      this.wires.connect(topLeft, PackedBoard.BOTTOM);
 
       // Bottom horizontal
-      bottomLeft.right = true;
-      bottomRight.left = true;
+      this.wires.connect(bottomLeft, PackedBoard.RIGHT);
 
       // Right side vertical
-      topRight.bottom = true;
-      bottomRight.top = true;
+      this.wires.connect(topRight, PackedBoard.BOTTOM);
     }
 
     // Single column: connect straight down
     else if (width == 1 && height >= 2) {
       for (int row = startRow; row < startRow + height - 1; row++) {
-        this.board.get(startCol).get(row).bottom = true;
-        this.board.get(startCol).get(row + 1).top = true;
+        this.wires.connect(this.indexOf(startCol, row), PackedBoard.BOTTOM);
       }
     }
 
     // Single row: connect straight across
     else if (height == 1 && width >= 2) {
       for (int col = startCol; col < startCol + width - 1; col++) {
-        this.board.get(col).get(startRow).right = true;
-        this.board.get(col + 1).get(startRow).left = true;
+        this.wires.connect(this.indexOf(col, startRow), PackedBoard.RIGHT);
       }
     }
 
@@ -235,305 +453,476 @@ class LightEmAll extends World {
 
   // Purpose: Computes a radius based on the longest path in the wiring
   int calculateRadius() {
-    GamePiece start = this.board.get(this.powerCol).get(this.powerRow);
-    GamePiece farthest = this.findFarthestNode(start);
-    int diameter = this.findFarthestDistance(farthest);
+    int start = this.indexOf(this.powerCol, this.powerRow);
+
+    // Generated wiring is a tree, whose diameter takes a single traversal
+    int diameter = this.bfs.treeDiameter(this.wires, start);
+    if (diameter < 0) {
+      int farthest = this.findFarthestNode(start);
+      diameter = this.findFarthestDistance(farthest);
+    }
     return (diameter / 2) + 1;
   }
 
-  // Finds the tile that is the most steps away from start
-  GamePiece findFarthestNode(GamePiece start) {
-    ArrayList<GamePiece> queue = new ArrayList<GamePiece>();
-    ArrayList<GamePiece> visited = new ArrayList<GamePiece>();
+  // Finds the index of the tile that is the most steps away from start
+  int findFarthestNode(int start) {
+    int count = this.bfs.search(this.wires, start, Integer.MAX_VALUE);
 
-    queue.add(start);
-    visited.add(start);
+    // In BFS, the last thing reached is always one of the farthest
+    return this.bfs.queue[count - 1];
+  }
+
+  // Purpose: Finds how many steps away the farthest tile is
+  int findFarthestDistance(int start) {
+    int count = this.bfs.search(this.wires, start, Integer.MAX_VALUE);
+    return this.bfs.dist[this.bfs.queue[count - 1]];
+  }
 
-    GamePiece farthest = start;
-    int index = 0;
+  // Purpose: Randomly rotates each tile, the same way every time for this game's seed
+  void scrambleBoard() {
+    this.scrambleBoard(this.seed);
+  }
 
-    while (index < queue.size()) {
-      GamePiece current = queue.get(index);
+  // Purpose: Randomly rotates each tile, determined entirely by the given seed. Each chunk of
+  // tiles gets its own generator split off in a fixed order, so chunks can be scrambled in
+  // parallel and still give the same board
+  void scrambleBoard(long seed) {
+    long start = this.metrics.start();
+    this.scene = null;
+    this.seeded = false;
+
+    // Chunks are rotated in parallel, so the link table is rebuilt afterwards instead
+    this.wires.dropLinks();
+    this.connectivity.invalidate();
+    SplittableRandom root = new SplittableRandom(seed);
+    int size = this.wires.size();
+    int chunks = (size + SCRAMBLE_CHUNK - 1) / SCRAMBLE_CHUNK;
+    SplittableRandom[] streams = new SplittableRandom[chunks];
+    for (int c = 0; c < chunks; c++) {
+      streams[c] = root.split();
+    }
 
-      // In BFS, the last thing reached is always one of the farthest
-      farthest = current;
-      index++;
+    if (chunks > 1) {
+      IntStream.range(0, chunks).parallel().forEach(c -> this.scrambleChunk(streams[c], c));
+    }
+    else if (chunks == 1) {
+      this.scrambleChunk(streams[0], 0);
+    }
+    this.metrics.stop(this.metrics.scramble, start);
+  }
 
-      // Only follow neighbors when both sides have a matching wire
-      if (current.left && current.col > 0) {
-        GamePiece n = this.board.get(current.col - 1).get(current.row);
-        if (n.right && !visited.contains(n)) {
-          visited.add(n);
-          queue.add(n);
-        }
-      }
+  // Purpose: Rotates every tile of one chunk by a random number of quarter turns
+  void scrambleChunk(SplittableRandom rand, int chunk) {
+    int end = Math.min((chunk + 1) * SCRAMBLE_CHUNK, this.wires.size());
+    for (int i = chunk * SCRAMBLE_CHUNK; i < end; i++) {
+      this.wires.rotate(i, rand.nextInt(4));
+    }
+  }
 
-      if (current.right && current.col < this.width - 1) {
-        GamePiece n = this.board.get(current.col + 1).get(current.row);
-        if (n.left && !visited.contains(n)) {
-          visited.add(n);
-          queue.add(n);
-        }
+  // Purpose: Rotates a tile when clicked, unless the game is already won
+  public void onMouseClicked(Posn pos) {
+    if (this.allPowered()) {
+      return;
+    }
+    long start = this.metrics.start();
+    TileGrid grid = this.grid();
+    int col = grid.column(pos.x);
+    int row = grid.row(pos.y);
+
+    if (col >= 0 && row >= 0) {
+      if (this.journal != null) {
+        this.journal.beginRotation();
       }
-
-      if (current.top && current.row > 0) {
-        GamePiece n = this.board.get(current.col).get(current.row - 1);
-        if (n.bottom && !visited.contains(n)) {
-          visited.add(n);
-          queue.add(n);
-        }
+      this.rotatePiece(col, row);
+      if (this.journal != null) {
+        this.journal.rotated(this.indexOf(col, row));
       }
-
-      if (current.bottom && current.row < this.height - 1) {
-        GamePiece n = this.board.get(current.col).get(current.row + 1);
-        if (n.top && !visited.contains(n)) {
-          visited.add(n);
-          queue.add(n);
-        }
+      if (this.recorder != null) {
+        this.recorder.rotate(this.indexOf(col, row));
       }
     }
-    return farthest;
+    this.metrics.stop(this.metrics.mouseClick, start);
   }
 
-  // Purpose: Finds how many steps away the farthest tile is
-  int findFarthestDistance(GamePiece start) {
-    ArrayList<GamePiece> queue = new ArrayList<GamePiece>();
-    ArrayList<GamePiece> visited = new ArrayList<GamePiece>();
-    ArrayList<Integer> depths = new ArrayList<Integer>();
-
-    queue.add(start);
-    visited.add(start);
-    depths.add(0); // starting tile is distance 0
-
-    int maxDepth = 0;
-    int index = 0;
+  // Purpose: Rotates the tile at the given position and repairs power around it. When radius
+  // cannot cut anything off, the connectivity index is kept up to date as well, so win checks
+  // made while power is stale need no search
+  void rotatePiece(int col, int row) {
+    int index = this.indexOf(col, row);
+    int linkedBefore = this.wires.linkedMask(index);
+    this.wires.rotate(index, 1);
+    this.markDirty(index);
+    if (this.unboundedRadius) {
+      this.connectivity.changed(index, linkedBefore);
+    }
+    if (this.extraStations > 0 || this.powerStale) {
+      // Repairs assume one station and depths measured from it, so power is recomputed when
+      // it is next needed
+      this.powerStale = true;
+    }
+    else {
+      this.repair.afterChange(index);
+    }
+  }
 
-    while (index < queue.size()) {
-      GamePiece current = queue.get(index);
-      int depth = depths.get(index);
-      maxDepth = Math.max(maxDepth, depth);
-      index++;
+  // Purpose: Moves the power station with arrow keys if wires allow it
+  public void onKeyEvent(String key) {
+    if (this.allPowered()) {
+      return;
+    }
 
-      // Each neighbor added is exactly one step farther away
-      if (current.left && current.col > 0) {
-        GamePiece n = this.board.get(current.col - 1).get(current.row);
-        if (n.right && !visited.contains(n)) {
-          visited.add(n);
-          queue.add(n);
-          depths.add(depth + 1);
-        }
+    int direction = KeyBindings.action(key);
+    if (direction == KeyBindings.UNDO || direction == KeyBindings.REDO) {
+      // The replay log sees undo and redo as the rotations and moves they amount to
+      boolean forward = direction == KeyBindings.REDO;
+      if (this.journal != null && (forward ? this.journal.redo() : this.journal.undo())) {
+        this.journal.log(this.recorder, forward ? this.journal.cursor - 1 : this.journal.cursor,
+          forward);
       }
+      return;
+    }
+    if (direction < 0) {
+      return;
+    }
 
-      if (current.right && current.col < this.width - 1) {
-        GamePiece n = this.board.get(current.col + 1).get(current.row);
-        if (n.left && !visited.contains(n)) {
-          visited.add(n);
-          queue.add(n);
-          depths.add(depth + 1);
-        }
-      }
+    long start = this.metrics.start();
+    int current = this.indexOf(this.powerCol, this.powerRow);
 
-      if (current.top && current.row > 0) {
-        GamePiece n = this.board.get(current.col).get(current.row - 1);
-        if (n.bottom && !visited.contains(n)) {
-          visited.add(n);
-          queue.add(n);
-          depths.add(depth + 1);
-        }
+    // Both wires must face each other for the station to move along them
+    if (this.wires.linked(current, direction)) {
+      int next = this.wires.neighbor(current, direction);
+      this.movePowerStation(next % this.width, next / this.width);
+      if (this.recorder != null) {
+        this.recorder.move(direction);
       }
-
-      if (current.bottom && current.row < this.height - 1) {
-        GamePiece n = this.board.get(current.col).get(current.row + 1);
-        if (n.top && !visited.contains(n)) {
-          visited.add(n);
-          queue.add(n);
-          depths.add(depth + 1);
-        }
+      this.afterStationStep();
+      if (this.journal != null) {
+        this.journal.moved(direction);
       }
     }
+    this.metrics.stop(this.metrics.keyEvent, start);
+  }
 
-    return maxDepth;
+  // Purpose: Returns the direction the power station moves for the given key, or -1 if the
+  // key does not move it
+  static int keyDirection(String key) {
+    return KeyBindings.direction(key);
   }
 
-  // Purpose: Randomly rotates each tile
-  void scrambleBoard() {
-    for (GamePiece piece : this.nodes) {
-      int rotations = (int) (Math.random() * 4);
-      for (int i = 0; i < rotations; i++) {
-        piece.rotate();
-      }
+  // Purpose: Returns the screen layout of the tiles at the current tile size, laying it out
+  // again only when the size or the board changed
+  TileGrid grid() {
+    if (this.grid == null || !this.grid.matches(this.width, this.height, this.tileSize)) {
+      this.grid = new TileGrid(this.width, this.height, this.tileSize);
     }
+    return this.grid;
   }
 
-  // Purpose: Rotates a tile when clicked, unless the game is already won
-  public void onMouseClicked(Posn pos) {
-    if (this.allPowered()) {
-      return;
-    }
-    int tileSize = 50;
-    int col = pos.x / tileSize;
-    int row = pos.y / tileSize;
+  // Purpose: Draws tiles of the given size from now on, redrawing the whole board next frame
+  void setTileSize(int size) {
+    this.grid = new TileGrid(this.width, this.height, size);
+    this.tileSize = size;
+    this.scene = null;
+  }
 
-    if (col >= 0 && col < this.width && row >= 0 && row < this.height) {
-      this.board.get(col).get(row).rotate();
+  // Purpose: Updates power after the main station stepped along a wire. Without a radius limit
+  // a lone station powers its whole group from any tile in it, so only the depths change, and
+  // they are recomputed when next needed
+  void afterStationStep() {
+    if (!this.unboundedRadius || this.extraStations > 0) {
       this.updatePower();
     }
+    else {
+      this.powerStale = true;
+    }
   }
 
-  // Purpose: Moves the power station with arrow keys if wires allow it
-  public void onKeyEvent(String key) {
-    if (this.allPowered()) {
-      return;
+  // Purpose: Adds a power station with its own radius at the given position, returning its
+  // number, and recomputes power
+  int addPowerStation(int col, int row, int radius) {
+    int count = this.extraStations + 1;
+    if (this.stationTiles == null || this.stationTiles.length == count) {
+      this.stationTiles = Arrays.copyOf(this.stationTiles == null ? new int[1] : this.stationTiles,
+        count * 2);
+      this.stationRadii = Arrays.copyOf(this.stationRadii == null ? new int[1] : this.stationRadii,
+        count * 2);
     }
+    if (this.stationBits == null) {
+      this.stationBits = new long[this.poweredBits.length];
+      this.powerOwner = new int[this.wires.size()];
+    }
+    int index = this.indexOf(col, row);
+    this.stationTiles[count] = index;
+    this.stationRadii[count] = radius;
+    this.stationBits[index >>> 6] |= 1L << index;
+    this.extraStations = count;
+    this.markDirty(index);
+    this.updatePower();
+    return count;
+  }
 
-    GamePiece currentPiece = this.board.get(this.powerCol).get(this.powerRow);
-    int newCol = this.powerCol;
-    int newRow = this.powerRow;
+  // Purpose: Checks whether the tile at the given index holds any power station
+  boolean isStationAt(int index) {
+    return index == this.indexOf(this.powerCol, this.powerRow)
+      || (this.stationBits != null && (this.stationBits[index >>> 6] & (1L << index)) != 0);
+  }
 
-    if (key.equals("up")) {
-      newRow--;
-      if (newRow >= 0 && currentPiece.top
-        && this.board.get(newCol).get(newRow).bottom) {
-        this.movePowerStation(newCol, newRow);
-        this.updatePower();
-      }
-    }
-    else if (key.equals("down")) {
-      newRow++;
-      if (newRow < this.height && currentPiece.bottom
-        && this.board.get(newCol).get(newRow).top) {
-        this.movePowerStation(newCol, newRow);
-        this.updatePower();
-      }
-    }
-    else if (key.equals("left")) {
-      newCol--;
-      if (newCol >= 0 && currentPiece.left
-        && this.board.get(newCol).get(newRow).right) {
-        this.movePowerStation(newCol, newRow);
-        this.updatePower();
-      }
-    }
-    else if (key.equals("right")) {
-      newCol++;
-      if (newCol < this.width && currentPiece.right
-        && this.board.get(newCol).get(newRow).left) {
-        this.movePowerStation(newCol, newRow);
-        this.updatePower();
-      }
+  // Purpose: Returns the number of the station powering the tile at the given position, where
+  // 0 is the main station, or -1 if the tile has no power
+  int poweringStation(int col, int row) {
+    if (!this.isPoweredAt(col, row)) {
+      return -1;
     }
+    return this.extraStations == 0 ? 0 : this.powerOwner[this.indexOf(col, row)];
   }
 
   // Purpose: Updates the power station's location
   void movePowerStation(int newCol, int newRow) {
-    this.board.get(this.powerCol).get(this.powerRow).powerStation = false;
+    this.markDirty(this.indexOf(this.powerCol, this.powerRow));
     this.powerCol = newCol;
     this.powerRow = newRow;
-    this.board.get(this.powerCol).get(this.powerRow).powerStation = true;
+    this.markDirty(this.indexOf(this.powerCol, this.powerRow));
+    if (this.distances != null) {
+      this.distances.stationMoved(this.indexOf(newCol, newRow));
+    }
   }
 
   // Purpose: Recomputes which tiles have power based on current wiring and radius
   void updatePower() {
-    ArrayList<GamePiece> poweredPieces = new ArrayList<GamePiece>();
-    ArrayList<GamePiece> queue = new ArrayList<GamePiece>();
-    ArrayList<Integer> depths = new ArrayList<Integer>();
-
-    GamePiece start = this.board.get(this.powerCol).get(this.powerRow);
-    queue.add(start);
-    poweredPieces.add(start);
-    depths.add(0);
-
-    int index = 0;
-    while (index < queue.size()) {
-      GamePiece current = queue.get(index);
-      int depth = depths.get(index);
-      index++;
-
-      // Do not go farther than the allowed radius
-      if (depth >= this.radius) {
-        continue;
-      }
-
-      // Add neighboring tiles if wires match and tile isn't already powered
-      if (current.left && current.col > 0) {
-        GamePiece n = this.board.get(current.col - 1).get(current.row);
-        if (n.right && !poweredPieces.contains(n)) {
-          poweredPieces.add(n);
-          queue.add(n);
-          depths.add(depth + 1);
+    long start = this.metrics.start();
+    this.powerStale = false;
+    this.connectivity.invalidate();
+    if (this.journal != null) {
+      this.journal.powerRecomputed();
+    }
+    int station = this.indexOf(this.powerCol, this.powerRow);
+    BfsEngine engine = this.bfs;
+    int count;
+    if (this.extraStations > 0) {
+      this.stationTiles[0] = station;
+      this.stationRadii[0] = this.radius;
+      count = engine.multiSearch(this.wires, this.stationTiles, this.stationRadii,
+        this.extraStations + 1);
+    }
+    else {
+      if (this.wires.size() >= this.parallelPowerTiles) {
+        if (this.parallelBfs == null) {
+          this.parallelBfs = new ParallelBfs(this.wires.size());
         }
+        engine = this.parallelBfs;
       }
+      count = engine.search(this.wires, station, this.radius);
+    }
 
-      if (current.right && current.col < this.width - 1) {
-        GamePiece n = this.board.get(current.col + 1).get(current.row);
-        if (n.left && !poweredPieces.contains(n)) {
-          poweredPieces.add(n);
-          queue.add(n);
-          depths.add(depth + 1);
-        }
+    // Forget the depths of tiles powered so far, touching only their set bits
+    for (int word = 0; word < this.poweredBits.length; word++) {
+      long bits = this.poweredBits[word];
+      while (bits != 0) {
+        this.powerDepth[(word << 6) + Long.numberOfTrailingZeros(bits)] = -1;
+        bits &= bits - 1;
       }
+    }
+    if (this.scene != null) {
+      System.arraycopy(this.poweredBits, 0, this.previousBits, 0, this.poweredBits.length);
+    }
 
-      if (current.top && current.row > 0) {
-        GamePiece n = this.board.get(current.col).get(current.row - 1);
-        if (n.bottom && !poweredPieces.contains(n)) {
-          poweredPieces.add(n);
-          queue.add(n);
-          depths.add(depth + 1);
+    Arrays.fill(this.poweredBits, 0L);
+    for (int i = 0; i < count; i++) {
+      int index = engine.queue[i];
+      this.poweredBits[index >>> 6] |= 1L << index; // shift distance is taken mod 64
+      this.powerDepth[index] = engine.dist[index];
+    }
+    if (this.extraStations > 0) {
+      // Tiles that changed hands keep their power but change color
+      for (int i = 0; i < count; i++) {
+        int index = engine.queue[i];
+        if (this.powerOwner[index] != engine.source[index]) {
+          this.powerOwner[index] = engine.source[index];
+          this.markDirty(index);
         }
       }
-
-      if (current.bottom && current.row < this.height - 1) {
-        GamePiece n = this.board.get(current.col).get(current.row + 1);
-        if (n.top && !poweredPieces.contains(n)) {
-          poweredPieces.add(n);
-          queue.add(n);
-          depths.add(depth + 1);
+    }
+    this.poweredCount = count;
+
+    // Tiles whose powered state flipped have to be redrawn
+    if (this.scene != null) {
+      for (int word = 0; word < this.poweredBits.length; word++) {
+        long flipped = this.poweredBits[word] ^ this.previousBits[word];
+        while (flipped != 0) {
+          this.markDirty((word << 6) + Long.numberOfTrailingZeros(flipped));
+          flipped &= flipped - 1;
         }
       }
     }
+    this.metrics.countSearch(count);
+    this.metrics.stop(this.metrics.updatePower, start);
+  }
+
+  // Purpose: Brings the powered set up to date if rotations were made without repairing it
+  void refreshPower() {
+    if (this.powerStale) {
+      this.updatePower();
+    }
+  }
+
+  // Purpose: Computes the flat index used for the tile at the given column and row
+  int indexOf(int col, int row) {
+    return row * this.width + col;
+  }
+
+  // Purpose: Records that the tile at the given index is powered at the given depth
+  void setPowered(int index, int depth) {
+    if (this.journal != null) {
+      this.journal.powerChanging(index);
+    }
+    if (this.powerDepth[index] < 0) {
+      this.poweredBits[index >>> 6] |= 1L << index;
+      this.poweredCount++;
+      this.markDirty(index);
+    }
+    this.powerDepth[index] = depth;
+  }
+
+  // Purpose: Records that the tile at the given index has lost power
+  void setUnpowered(int index) {
+    if (this.journal != null) {
+      this.journal.powerChanging(index);
+    }
+    if (this.powerDepth[index] >= 0) {
+      this.poweredBits[index >>> 6] &= ~(1L << index);
+      this.poweredCount--;
+      this.markDirty(index);
+    }
+    this.powerDepth[index] = -1;
+  }
 
-    this.poweredPieces = poweredPieces;
+  // Purpose: Returns a view of the piece at the given column and row
+  GamePiece pieceAt(int col, int row) {
+    return new GamePiece(this.wires, row, col);
   }
 
   // Purpose: Checks whether a specific tile currently has power
   boolean isPoweredAt(int col, int row) {
-    return this.poweredPieces.contains(this.board.get(col).get(row));
+    this.refreshPower();
+    int index = this.indexOf(col, row);
+    return (this.poweredBits[index >>> 6] & (1L << index)) != 0;
   }
 
-  // Purpose: Checks whether every tile on the board has power
+  // Purpose: Checks whether every tile on the board has power. While power is stale, without a
+  // radius limit and with a single station, that is the same as the wiring being fully
+  // connected, which the connectivity index usually answers from its link count alone
   boolean allPowered() {
-    for (GamePiece piece : this.nodes) {
-      if (!this.poweredPieces.contains(piece)) {
-        return false;
+    if (this.powerStale) {
+      if (this.unboundedRadius && this.extraStations == 0) {
+        return this.connectivity.fullyConnected();
       }
+      this.refreshPower();
     }
-    return true;
+    return this.poweredCount == this.width * this.height;
   }
 
-  // Purpose: Draws the board and win message (during endgame)
+  // Purpose: Lists the tiles that currently have power, in row-major order
+  ArrayList<GamePiece> poweredPieces() {
+    this.refreshPower();
+    ArrayList<GamePiece> result = new ArrayList<GamePiece>(this.poweredCount);
+    for (int row = 0; row < this.height; row++) {
+      for (int col = 0; col < this.width; col++) {
+        if (this.isPoweredAt(col, row)) {
+          result.add(this.pieceAt(col, row));
+        }
+      }
+    }
+    return result;
+  }
+
+  // Purpose: Draws the board and win message (during endgame). When reuseScene is set, the
+  // previous scene is returned with only the changed tiles placed on top of it
   public WorldScene makeScene() {
-    WorldScene scene = new WorldScene(this.width * 50, this.height * 50);
+    long start = this.metrics.start();
+    this.refreshPower();
+    int size = this.wires.size();
+    if (!this.reuseScene || this.scene == null || this.allPowered() != this.sceneShowsWin
+      || this.scenePlacements + this.dirtyCount > 2 * size) {
+      WorldScene scene = this.drawScene();
+      this.metrics.stop(this.metrics.makeScene, start);
+      return scene;
+    }
 
-    for (int col = 0; col < this.width; col++) {
-      for (int row = 0; row < this.height; row++) {
-        GamePiece piece = this.board.get(col).get(row);
-        Color wireColor =
-          this.isPoweredAt(col, row) ? Color.YELLOW : Color.GRAY;
-        WorldImage tileImg =
-          piece.tileImage(50, 5, wireColor, piece.powerStation);
-        scene.placeImageXY(tileImg, col * 50 + 25, row * 50 + 25);
-      }
+    TileGrid grid = this.grid();
+    TileImageCache images = this.tileImagesFor(grid.tileSize, grid.wireWidth);
+    int created = images.created;
+    for (int i = 0; i < this.dirtyCount; i++) {
+      int index = this.dirtyTiles[i];
+      this.dirtyBits[index >>> 6] = 0L;
+      this.placeTile(this.scene, grid, images, index);
+    }
+    this.metrics.countFrame(false, this.dirtyCount, images.created - created);
+    this.scenePlacements += this.dirtyCount;
+    this.dirtyCount = 0;
+    this.metrics.stop(this.metrics.makeScene, start);
+    return this.scene;
+  }
+
+  // Purpose: Draws every tile and the win message onto a new scene and remembers it
+  WorldScene drawScene() {
+    TileGrid grid = this.grid();
+    WorldScene scene = new WorldScene(grid.pixelWidth(), grid.pixelHeight());
+
+    TileImageCache images = this.tileImagesFor(grid.tileSize, grid.wireWidth);
+    int created = images.created;
+    for (int index = 0; index < this.wires.size(); index++) {
+      this.placeTile(scene, grid, images, index);
     }
+    this.metrics.countFrame(true, this.wires.size(), images.created - created);
 
     if (this.allPowered()) {
       scene.placeImageXY(new TextImage("YOU WIN!", 30, Color.GREEN),
-        this.width * 25, this.height * 25);
+        grid.pixelWidth() / 2, grid.pixelHeight() / 2);
     }
 
+    this.scene = scene;
+    this.sceneShowsWin = this.allPowered();
+    this.scenePlacements = this.wires.size();
+    Arrays.fill(this.dirtyBits, 0L);
+    this.dirtyCount = 0;
     return scene;
   }
-}
 
+  // Purpose: Places the current image of the tile at the given index onto the scene
+  void placeTile(WorldScene scene, TileGrid grid, TileImageCache images, int index) {
+    int col = index % this.width;
+    int row = index / this.width;
+    int owner = this.poweringStation(col, row);
+    Color wireColor =
+      owner >= 0 ? STATION_COLORS[owner % STATION_COLORS.length] : Color.GRAY;
+    WorldImage tileImg = images.get(this.wires.mask(index), wireColor, this.isStationAt(index));
+    scene.placeImageXY(tileImg, grid.centerX(col), grid.centerY(row));
+  }
+
+  // Purpose: Records that the tile at the given index must be redrawn on the next frame
+  void markDirty(int index) {
+    if (this.scene == null) {
+      return;
+    }
+    long bit = 1L << index;
+    if ((this.dirtyBits[index >>> 6] & bit) == 0) {
+      this.dirtyBits[index >>> 6] |= bit;
+      if (this.dirtyCount == this.dirtyTiles.length) {
+        // Grown on demand, since most frames change only a few tiles of a huge board
+        this.dirtyTiles = Arrays.copyOf(this.dirtyTiles, this.dirtyCount * 2);
+      }
+      this.dirtyTiles[this.dirtyCount++] = index;
+    }
+  }
+
+  // Purpose: Returns the tile image cache for the given tile size and wire width
+  TileImageCache tileImagesFor(int size, int wireWidth) {
+    if (this.tileImages == null || !this.tileImages.matches(size, wireWidth)) {
+      this.tileImages = new TileImageCache(size, wireWidth);
+    }
+    return this.tileImages;
+  }
+}
 
 class ExamplesLightEmAll {
 // Test that updatePower recomputes powered tiles after a rotation
@@ -544,23 +933,1257 @@ void testUpdatePower(Tester t) {
   int pr = game.powerRow;
 
   // Pick a tile directly above the power station
-  GamePiece neighbor = game.board.get(pc).get(pr - 1);
+  GamePiece neighbor = game.pieceAt(pc, pr - 1);
 
   // Force a known connection
-  neighbor.bottom = true;
-  game.board.get(pc).get(pr).top = true;
+  neighbor.setWire(PackedBoard.BOTTOM, true);
+  game.pieceAt(pc, pr).setWire(PackedBoard.TOP, true);
 
   game.updatePower();
   t.checkExpect(game.isPoweredAt(pc, pr - 1), true);
 
   // Break the connection
-  neighbor.bottom = false;
-  game.board.get(pc).get(pr).top = false;
+  neighbor.setWire(PackedBoard.BOTTOM, false);
+  game.pieceAt(pc, pr).setWire(PackedBoard.TOP, false);
 
   game.updatePower();
   t.checkExpect(game.isPoweredAt(pc, pr - 1), false);
 }
 
+  // Test that the powered bitset, its count and the poweredPieces view agree
+  void testPoweredSet(Tester t) {
+    LightEmAll game = new LightEmAll(5, 5);
+    ArrayList<GamePiece> powered = game.poweredPieces();
+    t.checkExpect(powered.size(), game.poweredCount);
+    for (GamePiece piece : powered) {
+      t.checkExpect(game.isPoweredAt(piece.col, piece.row), true);
+    }
+    t.checkExpect(game.isPoweredAt(game.powerCol, game.powerRow), true);
+    t.checkExpect(game.allPowered(), game.poweredCount == 25);
+  }
+
+  // Test that incremental repair after random rotations matches a full updatePower
+  void testIncrementalPowerMatchesFull(Tester t) {
+    Random rand = new Random(42);
+    LightEmAll[] games = {new LightEmAll(8, 8), new LightEmAll(9, 9, true),
+      new LightEmAll(6, 6, true), new LightEmAll(12, 12)};
+    for (LightEmAll game : games) {
+      for (int i = 0; i < 400; i++) {
+        game.rotatePiece(rand.nextInt(game.width), rand.nextInt(game.height));
+        long[] bits = game.poweredBits.clone();
+        int[] depths = game.powerDepth.clone();
+        int count = game.poweredCount;
+        game.updatePower();
+        t.checkExpect(bits, game.poweredBits);
+        t.checkExpect(depths, game.powerDepth);
+        t.checkExpect(count, game.poweredCount);
+      }
+    }
+  }
+
+  // Test that the connectivity index agrees with a search from the station after rotations
+  void testConnectivityIndex(Tester t) {
+    Random rand = new Random(11);
+    LightEmAll[] games = {new LightEmAll(7, 5), new LightEmAll(10, 10), new LightEmAll(3, 1, true)};
+    for (LightEmAll game : games) {
+      t.checkExpect(game.unboundedRadius, true);
+      int size = game.wires.size();
+      for (int i = 0; i < 300; i++) {
+        // A station step leaves power stale, so later rotations only update the index
+        if (i % 50 == 0) {
+          game.afterStationStep();
+        }
+        game.rotatePiece(rand.nextInt(game.width), rand.nextInt(game.height));
+        boolean stale = game.powerStale;
+        boolean won = game.allPowered();
+        int station = game.indexOf(game.powerCol, game.powerRow);
+        int groupSize = game.connectivity.componentSize(station);
+        int other = rand.nextInt(size);
+        boolean joined = game.connectivity.connected(station, other);
+
+        t.checkExpect(game.powerStale, stale);
+        t.checkExpect(game.isPoweredAt(other % game.width, other / game.width), joined);
+        t.checkExpect(game.powerStale, false);
+        t.checkExpect(groupSize, game.poweredCount);
+        t.checkExpect(won, game.poweredCount == size);
+      }
+    }
+
+    // Solving the board is noticed without a search, whether or not power is stale
+    LightEmAll game = new LightEmAll(6, 6);
+    new PuzzleSolver().solve(game).applyTo(game);
+    game.rotatePiece(0, 0);
+    game.rotatePiece(0, 0);
+    game.rotatePiece(0, 0);
+    t.checkExpect(game.allPowered(), false);
+    game.rotatePiece(0, 0);
+    t.checkExpect(game.powerStale, false);
+    t.checkExpect(game.allPowered(), true);
+    game.rotatePiece(0, 0);
+    game.afterStationStep();
+    game.rotatePiece(0, 0);
+    game.rotatePiece(0, 0);
+    game.rotatePiece(0, 0);
+    t.checkExpect(game.powerStale, true);
+    t.checkExpect(game.allPowered(), true);
+    t.checkExpect(game.powerStale, true);
+
+    // Clicks on boards without a radius limit repair power in place, so no full search runs
+    // however large the board is
+    int[] sizes = {16, 64, 256};
+    for (int side : sizes) {
+      LightEmAll big = new LightEmAll(side, side);
+      big.makeScene();
+      big.metrics.enabled = true;
+      for (int i = 0; i < 20; i++) {
+        big.onMouseClicked(new Posn(25 + 50 * (i % 4), 25 + 50 * side / 2));
+        big.makeScene();
+      }
+      t.checkExpect(big.metrics.mouseClick.count, 20L);
+      t.checkExpect(big.metrics.updatePower.count, 0L);
+      t.checkExpect(big.metrics.tilesVisited, 0L);
+    }
+
+    UnionFind sets = new UnionFind(4);
+    t.checkExpect(sets.union(0, 1), true);
+    t.checkExpect(sets.union(1, 0), false);
+    t.checkExpect(sets.union(2, 3), true);
+    t.checkExpect(sets.sets, 2);
+    t.checkExpect(sets.find(0) == sets.find(2), false);
+    sets.union(3, 0);
+    t.checkExpect(sets.size[sets.find(2)], 4);
+  }
+
+  // Test that replaying a recorded session, with or without deferred power, ends in the
+  // same state as the game that was played, undo and redo included
+  void testReplayLog(Tester t) {
+    try {
+      Path file = Files.createTempFile("lightemall", ".replay");
+      Random rand = new Random(3);
+      int[] layouts = {LightEmAll.MANUAL, LightEmAll.FRACTAL, LightEmAll.RANDOM_TREE};
+      for (int layout : layouts) {
+        LightEmAll game = new LightEmAll(9, 7, layout, 99);
+        game.journal = new UndoJournal(game);
+        String[] keys = {"up", "down", "left", "right", "z", "y"};
+        try (ReplayWriter writer = new ReplayWriter(file, game)) {
+          game.recorder = writer;
+          for (int i = 0; i < 500 && !game.allPowered(); i++) {
+            if (rand.nextInt(4) == 0) {
+              game.onKeyEvent(keys[rand.nextInt(keys.length)]);
+            }
+            else {
+              game.onMouseClicked(new Posn(rand.nextInt(9 * 50), rand.nextInt(7 * 50)));
+            }
+          }
+        }
+        game.refreshPower();
+
+        boolean[] defer = {false, true};
+        for (boolean deferPower : defer) {
+          try (ReplayEngine engine = new ReplayEngine(file)) {
+            engine.deferPower = deferPower;
+            int[] checkpoints = {0};
+            engine.run(50, g -> checkpoints[0]++);
+            t.checkExpect(engine.eventsApplied, game.recorder.events);
+            t.checkExpect(checkpoints[0], engine.checkpoints);
+            t.checkExpect(engine.checkpoints, (int) (engine.eventsApplied / 50) + 1);
+            t.checkExpect(engine.game.wires.masks, game.wires.masks);
+            t.checkExpect(engine.game.powerCol, game.powerCol);
+            t.checkExpect(engine.game.powerRow, game.powerRow);
+            t.checkExpect(engine.game.poweredBits, game.poweredBits);
+          }
+        }
+      }
+
+      Files.write(file, new byte[] {1, 2, 3, 4});
+      String message = "";
+      try (ReplayEngine engine = new ReplayEngine(file)) {
+        message = "opened as " + engine.game.width + "x" + engine.game.height;
+      }
+      catch (IOException e) {
+        message = e.getMessage();
+      }
+      t.checkExpect(message, "Not a replay log: " + file);
+
+      ByteBuffer header = ByteBuffer.allocate(ReplayWriter.HEADER_BYTES);
+      header.putInt(ReplayWriter.MAGIC).put((byte) 9);
+      Files.write(file, header.array());
+      try (ReplayEngine engine = new ReplayEngine(file)) {
+        message = "opened as " + engine.game.width + "x" + engine.game.height;
+      }
+      catch (IOException e) {
+        message = e.getMessage();
+      }
+      t.checkExpect(message, "Unsupported replay log version 9: " + file);
+      Files.delete(file);
+
+      // Boards the header could not rebuild are refused
+      LightEmAll loaded = new LightEmAll(new PackedBoard(3, 3), 1, 1, 8);
+      LightEmAll rescrambled = new LightEmAll(3, 3, LightEmAll.FRACTAL, 5L);
+      rescrambled.scrambleBoard(6L);
+      LightEmAll[] unseeded = {loaded, rescrambled};
+      for (LightEmAll game : unseeded) {
+        t.checkExpect(game.seeded, false);
+        try (ReplayWriter writer = new ReplayWriter(file, game)) {
+          message = "logged " + writer.events;
+        }
+        catch (IllegalArgumentException e) {
+          message = e.getMessage();
+        }
+        t.checkExpect(message, "Only boards generated from a seed can be logged");
+      }
+      t.checkExpect(Files.exists(file), false);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Test that boards survive saving and loading, alone or in a pack, and that playing a
+  // loaded board leaves its file alone
+  void testBoardCodec(Tester t) {
+    try {
+      Path file = Files.createTempFile("lightemall", ".board");
+      LightEmAll game = new LightEmAll(9, 7, true, 5);
+      game.rotatePiece(2, 3);
+      BoardCodec.save(game, file);
+      t.checkExpect(Files.size(file), BoardCodec.encodedSize(9, 7));
+      t.checkExpect(Files.size(file), 28L + 32);
+
+      LightEmAll loaded = BoardCodec.load(file);
+      t.checkExpect(loaded.wires instanceof MappedBoard, true);
+      for (int i = 0; i < game.wires.size(); i++) {
+        t.checkExpect(loaded.wires.mask(i), game.wires.mask(i));
+      }
+      t.checkExpect(loaded.powerCol, game.powerCol);
+      t.checkExpect(loaded.powerRow, game.powerRow);
+      t.checkExpect(loaded.radius, game.radius);
+      t.checkExpect(loaded.layout, LightEmAll.FRACTAL);
+      t.checkExpect(loaded.poweredBits, game.poweredBits);
+
+      loaded.rotatePiece(8, 6);
+      t.checkExpect(loaded.wires.mask(62), PackedBoard.rotateMask(game.wires.mask(62), 1));
+      t.checkExpect(BoardCodec.load(file).wires.mask(62), game.wires.mask(62));
+
+      ArrayList<LightEmAll> games = new ArrayList<LightEmAll>();
+      games.add(game);
+      games.add(new LightEmAll(4, 3));
+      games.add(new LightEmAll(16, 16, true, 8));
+      BoardPack.write(file, games);
+      try (BoardPack pack = new BoardPack(file)) {
+        t.checkExpect(pack.count, 3);
+        for (int g = 2; g >= 0; g--) {
+          LightEmAll original = games.get(g);
+          LightEmAll opened = pack.open(g);
+          t.checkExpect(opened.width, original.width);
+          t.checkExpect(opened.unboundedRadius, original.unboundedRadius);
+          t.checkExpect(opened.poweredBits, original.poweredBits);
+          t.checkExpect(opened.wires.linkedMask(5), original.wires.linkedMask(5));
+        }
+      }
+
+      Files.write(file, new byte[] {1, 2, 3, 4});
+      String message = "";
+      try (BoardPack pack = new BoardPack(file)) {
+        message = "opened " + pack.count;
+      }
+      catch (IOException e) {
+        message = e.getMessage();
+      }
+      t.checkExpect(message, "Not a board pack: " + file);
+      Files.delete(file);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Test that fractal wiring spans rectangular boards, and that empty boards are rejected
+  void testRectangularBoards(Tester t) {
+    int[][] shapes = {{7, 3}, {3, 7}, {1, 5}, {5, 1}, {40, 9}, {2, 11}, {130, 131}};
+    for (int[] shape : shapes) {
+      LightEmAll game = new LightEmAll(shape[0], shape[1], true, 1);
+      game.initializeFractalBoard();
+      int start = game.indexOf(game.powerCol, game.powerRow);
+      t.checkExpect(game.bfs.search(game.wires, start, Integer.MAX_VALUE), shape[0] * shape[1]);
+      t.checkExpect(game.bfs.treeDiameter(game.wires, start) >= 0, true);
+    }
+
+    t.checkConstructorException(new IllegalArgumentException("Unsupported board size: 0x4"),
+      "LightEmAll", 0, 4);
+  }
+
+  // Test that the puzzle factory makes the same unsolved boards whatever the worker count,
+  // and that they can be written to a pack
+  void testPuzzleFactory(Tester t) {
+    try {
+      byte[][] made = new byte[30][];
+      PuzzleFactory factory = new PuzzleFactory(12, 12, LightEmAll.FRACTAL, 3, 2);
+      factory.produce(30, 77, (index, board) -> {
+        made[(int) index] = new byte[board.remaining()];
+        board.get(made[(int) index]);
+      });
+      t.checkExpect(factory.boardsMade.get(), 30L);
+      for (int i = 0; i < 30; i++) {
+        LightEmAll game = BoardCodec.decode(ByteBuffer.wrap(made[i]));
+        t.checkExpect(game.allPowered(), false);
+        LightEmAll fresh = new LightEmAll(12, 12, true, PuzzleFactory.seedFor(77, i));
+        if (!fresh.allPowered()) {
+          t.checkExpect(game.wires.linkedMask(i), fresh.wires.linkedMask(i));
+          t.checkExpect(game.poweredBits, fresh.poweredBits);
+          t.checkExpect(game.radius, fresh.radius);
+        }
+      }
+
+      Path file = Files.createTempFile("lightemall", ".pack");
+      try (BoardPackSink sink = new BoardPackSink(file, 30, 12, 12)) {
+        new PuzzleFactory(12, 12, LightEmAll.FRACTAL, 1, 1).produce(30, 77, sink);
+      }
+      try (BoardPack pack = new BoardPack(file)) {
+        t.checkExpect(pack.count, 30);
+        LightEmAll last = pack.open(29);
+        for (int i = 0; i < 144; i++) {
+          t.checkExpect(last.wires.mask(i), (made[29][28 + i / 2] >> (4 * (i & 1))) & 0xF);
+        }
+      }
+      Files.delete(file);
+
+      // A 1x1 board is always solved, so it is accepted after a bounded number of scrambles
+      PuzzleFactory tiny = new PuzzleFactory(1, 1, LightEmAll.MANUAL, 1, 1);
+      tiny.produce(2, 0, (index, board) -> { });
+      t.checkExpect(tiny.rescrambles.get(), 2L * (PuzzleFactory.MAX_SCRAMBLES - 1));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Test that the parallel search powers the same tiles at the same depths as the sequential one
+  void testParallelBfs(Tester t) {
+    Random rand = new Random(5);
+    LightEmAll[] games = {new LightEmAll(40, 30), new LightEmAll(64, 64, true, 2),
+      new LightEmAll(33, 17, true, 3)};
+    for (LightEmAll game : games) {
+      int size = game.wires.size();
+      ParallelBfs parallel = new ParallelBfs(size);
+      parallel.chunk = 3;
+      int[] radii = {0, 1, 7, game.radius, Integer.MAX_VALUE};
+      for (int r = 0; r < 40; r++) {
+        game.wires.rotate(rand.nextInt(size), 1);
+        int start = rand.nextInt(size);
+        int maxDepth = radii[r % radii.length];
+        int count = game.bfs.search(game.wires, start, maxDepth);
+        t.checkExpect(parallel.search(game.wires, start, maxDepth), count);
+        for (int i = 0; i < size; i++) {
+          t.checkExpect(parallel.visited(i), game.bfs.visited(i));
+          if (game.bfs.visited(i)) {
+            t.checkExpect(parallel.dist[i], game.bfs.dist[i]);
+          }
+        }
+        for (int i = 1; i < count; i++) {
+          t.checkExpect(parallel.dist[parallel.queue[i - 1]] <= parallel.dist[parallel.queue[i]],
+            true);
+          t.checkExpect(parallel.dist[parallel.parent[parallel.queue[i]]],
+            parallel.dist[parallel.queue[i]] - 1);
+        }
+      }
+
+      // updatePower switches over once the board is large enough
+      game.updatePower();
+      long[] bits = game.poweredBits.clone();
+      int[] depths = game.powerDepth.clone();
+      game.parallelPowerTiles = size;
+      game.updatePower();
+      t.checkExpect(game.parallelBfs != null, true);
+      t.checkExpect(game.poweredBits, bits);
+      t.checkExpect(game.powerDepth, depths);
+    }
+  }
+
+  // Test that histograms bucket values within their stated precision, and that enabled
+  // metrics see the game's hot paths while disabled ones record nothing
+  void testGameMetrics(Tester t) {
+    for (long v = 0; v < 5000; v++) {
+      int b = LatencyHistogram.bucketOf(v);
+      t.checkExpect(LatencyHistogram.lowestValue(b) <= v && v <= LatencyHistogram.highestValue(b),
+        true);
+    }
+    t.checkExpect(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.BUCKETS - 1);
+    t.checkExpect(LatencyHistogram.lowestValue(LatencyHistogram.BUCKETS - 1), 15L << 59);
+    LatencyHistogram h = new LatencyHistogram();
+    for (long v = 1; v <= 1000; v++) {
+      h.record(v * 1000);
+    }
+    t.checkExpect(h.count, 1000L);
+    t.checkInexact(h.mean(), 500500.0, 0.001);
+    t.checkNumRange(h.quantile(0.5), 500000L, 562501L);
+    t.checkNumRange(h.quantile(0.99), 990000L, 1113751L);
+    t.checkExpect(h.quantile(1.0), 1000000L);
+
+    LightEmAll game = new LightEmAll(6, 6, true, 3);
+    game.makeScene();
+    game.onMouseClicked(new Posn(10, 10));
+    t.checkExpect(game.metrics.mouseClick.count, 0L);
+    t.checkExpect(game.metrics.framesDrawn, 0L);
+
+    game.metrics.enabled = true;
+    game.onMouseClicked(new Posn(60, 10));
+    game.onKeyEvent("x");
+    game.updatePower();
+    game.makeScene();
+    game.makeScene();
+    game.scrambleBoard(4);
+    game.generate(5);
+    t.checkExpect(game.metrics.mouseClick.count, 1L);
+    t.checkExpect(game.metrics.keyEvent.count, 0L);
+    t.checkExpect(game.metrics.updatePower.count, 2L);
+    t.checkExpect(game.metrics.tilesVisited > 0, true);
+    t.checkExpect(game.metrics.makeScene.count, 2L);
+    t.checkExpect(game.metrics.framesPatched, 2L);
+    t.checkExpect(game.metrics.scramble.count, 2L);
+    t.checkExpect(game.metrics.generate.count, 1L);
+    t.checkExpect(game.metrics.snapshot(game).contains("mouseClick"), true);
+    game.metrics.reset();
+    t.checkExpect(game.metrics.scramble.count, 0L);
+  }
+
+  // Test that the link table stays equal to the links worked out from the wires, whatever
+  // kind of board it belongs to and however its tiles change
+  void testLinkTable(Tester t) {
+    Random rand = new Random(21);
+    PackedBoard[] boards = {new PackedBoard(7, 5), new MappedBoard(5, 5, ByteBuffer.allocate(13))};
+    for (PackedBoard wires : boards) {
+      int size = wires.size();
+      wires.links();
+      for (int step = 0; step < 400; step++) {
+        int i = rand.nextInt(size);
+        int op = rand.nextInt(3);
+        if (op == 0) {
+          wires.rotate(i, 1 + rand.nextInt(3));
+        }
+        else if (op == 1) {
+          wires.setMask(i, rand.nextInt(16));
+        }
+        else if (wires.neighbor(i, op) >= 0) {
+          wires.connect(i, op);
+        }
+        for (int j = 0; j < size; j++) {
+          t.checkExpect(wires.linkedMask(j), wires.computeLinks(j));
+        }
+      }
+      wires.clear();
+      t.checkExpect(wires.links, null);
+      t.checkExpect(wires.links()[size / 2], (byte) 0);
+    }
+
+    LightEmAll game = new LightEmAll(20, 20, true, 6);
+    t.checkExpect(game.wires.links != null, true);
+    game.scrambleBoard(7);
+    t.checkExpect(game.wires.links, null);
+    game.updatePower();
+    for (int j = 0; j < 400; j++) {
+      t.checkExpect(game.wires.linkedMask(j), game.wires.computeLinks(j));
+    }
+  }
+
+  // Test that several stations power exactly the tiles one search per station would, each
+  // owned by the station with the most steps to spare, and that power follows rotations
+  void testMultipleStations(Tester t) {
+    Random rand = new Random(8);
+    LightEmAll game = new LightEmAll(12, 10, true, 4);
+    int size = game.wires.size();
+    t.checkExpect(game.addPowerStation(2, 8, 3), 1);
+    t.checkExpect(game.addPowerStation(9, 4, 6), 2);
+    t.checkExpect(game.addPowerStation(9, 4, 2), 3);
+    t.checkExpect(game.isStationAt(game.indexOf(9, 4)), true);
+    t.checkExpect(game.isStationAt(game.indexOf(0, 0)), false);
+
+    BfsEngine single = new BfsEngine(size);
+    for (int step = 0; step < 60; step++) {
+      game.rotatePiece(rand.nextInt(12), rand.nextInt(10));
+      if (step % 5 == 0) {
+        game.radius = rand.nextInt(8);
+      }
+      game.refreshPower();
+      int[] best = new int[size];
+      Arrays.fill(best, -1);
+      for (int k = 0; k <= game.extraStations; k++) {
+        int start = k == 0 ? game.indexOf(game.powerCol, game.powerRow) : game.stationTiles[k];
+        int r = k == 0 ? game.radius : game.stationRadii[k];
+        int reached = single.search(game.wires, start, r);
+        for (int i = 0; i < reached; i++) {
+          int tile = single.queue[i];
+          best[tile] = Math.max(best[tile], r - single.dist[tile]);
+        }
+      }
+      int powered = 0;
+      for (int i = 0; i < size; i++) {
+        int owner = game.poweringStation(i % 12, i / 12);
+        t.checkExpect(owner >= 0, best[i] >= 0);
+        if (owner >= 0) {
+          powered++;
+          int r = owner == 0 ? game.radius : game.stationRadii[owner];
+          t.checkExpect(r - game.powerDepth[i], best[i]);
+        }
+      }
+      t.checkExpect(game.poweredCount, powered);
+    }
+
+    // Stations are sorted by radius, ties in station order, and only again once radii change
+    BfsEngine engine = new BfsEngine(size);
+    int[] starts = {0, 5, 17, 30, 41};
+    int[] radii = {2, 7, -1, 2, 7};
+    engine.multiSearch(game.wires, starts, radii, 5);
+    t.checkExpect(Arrays.copyOf(engine.byRadius, engine.stations), new int[] {1, 4, 0, 3});
+    int[] sorted = engine.sortedRadii;
+    engine.multiSearch(game.wires, starts, radii, 5);
+    t.checkExpect(engine.sortedRadii == sorted, true);
+    radii[2] = 9;
+    engine.multiSearch(game.wires, starts, radii, 5);
+    t.checkExpect(engine.sortedRadii == sorted, false);
+    t.checkExpect(Arrays.copyOf(engine.byRadius, engine.stations), new int[] {2, 1, 4, 0, 3});
+    engine.multiSearch(game.wires, starts, radii, 4);
+    t.checkExpect(Arrays.copyOf(engine.byRadius, engine.stations), new int[] {2, 1, 0, 3});
+
+    // Two stations can light a board whose wiring is split in two
+    PackedBoard split = new PackedBoard(4, 1);
+    split.connect(0, PackedBoard.RIGHT);
+    split.connect(2, PackedBoard.RIGHT);
+    LightEmAll halves = new LightEmAll(split, 0, 0, 5);
+    t.checkExpect(halves.allPowered(), false);
+    halves.addPowerStation(3, 0, 1);
+    t.checkExpect(halves.allPowered(), true);
+    t.checkExpect(halves.poweringStation(2, 0), 1);
+    halves.makeScene();
+    t.checkExpect(halves.tileImages.colors.contains(LightEmAll.STATION_COLORS[1]), true);
+    halves.rotatePiece(3, 0);
+    t.checkExpect(halves.allPowered(), false);
+    t.checkExpect(halves.poweringStation(2, 0), -1);
+    t.checkExpect(halves.poweringStation(3, 0), 1);
+  }
+
+  // Test that packed masks rotate clockwise and that links need wires on both sides
+  void testPackedBoard(Tester t) {
+    int left = 1 << PackedBoard.LEFT;
+    int top = 1 << PackedBoard.TOP;
+    int right = 1 << PackedBoard.RIGHT;
+    int bottom = 1 << PackedBoard.BOTTOM;
+    t.checkExpect(PackedBoard.rotateMask(left, 1), top);
+    t.checkExpect(PackedBoard.rotateMask(left | bottom, 1), top | left);
+    t.checkExpect(PackedBoard.rotateMask(left | top | right, 3), bottom | left | top);
+    t.checkExpect(PackedBoard.rotateMask(left | right, 4), left | right);
+
+    PackedBoard wires = new PackedBoard(3, 2);
+    wires.connect(wires.index(1, 0), PackedBoard.BOTTOM);
+    t.checkExpect(wires.linked(wires.index(1, 0), PackedBoard.BOTTOM), true);
+    t.checkExpect(wires.linked(wires.index(1, 1), PackedBoard.TOP), true);
+    wires.rotate(wires.index(1, 1), 1);
+    t.checkExpect(wires.mask(wires.index(1, 1)), right);
+    t.checkExpect(wires.linked(wires.index(1, 0), PackedBoard.BOTTOM), false);
+    t.checkExpect(wires.neighbor(wires.index(2, 0), PackedBoard.RIGHT), -1);
+    t.checkExpect(wires.neighbor(wires.index(0, 1), PackedBoard.BOTTOM), -1);
+  }
+
+  // Test that the distance field keeps matching a fresh search over the solved wiring as the
+  // station walks along it or jumps away, and after the board is generated again
+  void testDistanceField(Tester t) {
+    int[] layouts = {LightEmAll.MANUAL, LightEmAll.FRACTAL, LightEmAll.RANDOM_TREE};
+    Random rand = new Random(12);
+    for (int layout : layouts) {
+      LightEmAll game = new LightEmAll(11, 8, layout, 3L);
+      DistanceField field = game.distanceField();
+      this.checkDistances(t, game);
+      t.checkExpect(field.tree, true);
+
+      PackedBoard solved = field.solved;
+      for (int step = 0; step < 200; step++) {
+        int station = game.indexOf(game.powerCol, game.powerRow);
+        int dir = rand.nextInt(4);
+        if (rand.nextInt(10) == 0) {
+          int jump = rand.nextInt(solved.size());
+          game.movePowerStation(jump % game.width, jump / game.width);
+        }
+        else if (solved.linked(station, dir)) {
+          int next = solved.neighbor(station, dir);
+          game.movePowerStation(next % game.width, next / game.width);
+        }
+        if (step % 20 == 0) {
+          this.checkDistances(t, game);
+        }
+      }
+      this.checkDistances(t, game);
+
+      game.generate(4L);
+      t.checkExpect(game.distanceField() == field, true);
+      this.checkDistances(t, game);
+    }
+
+    // A loaded board is solved first
+    PackedBoard line = new PackedBoard(3, 1);
+    line.connect(0, PackedBoard.RIGHT);
+    line.connect(1, PackedBoard.RIGHT);
+    line.rotate(2, 1);
+    LightEmAll straight = new LightEmAll(line, 0, 0, 1);
+    t.checkExpect(straight.distanceField().distance(2), 2);
+    t.checkExpect(straight.reachableWhenSolved(1, 0), true);
+    t.checkExpect(straight.reachableWhenSolved(2, 0), false);
+
+    // A 2x2 ring has no tree to shift, so the field searches again instead
+    PackedBoard ring = new PackedBoard(2, 2);
+    ring.connect(0, PackedBoard.RIGHT);
+    ring.connect(0, PackedBoard.BOTTOM);
+    ring.connect(3, PackedBoard.LEFT);
+    ring.connect(3, PackedBoard.TOP);
+    byte[] ringSolution = ring.masks.clone();
+    ring.rotate(1, 2);
+    LightEmAll loaded = new LightEmAll(ring, 0, 0, 2);
+    loaded.solution = ringSolution;
+    t.checkExpect(loaded.distanceField().distance(3), 2);
+    t.checkExpect(loaded.distanceField().tree, false);
+    t.checkExpect(loaded.reachableWhenSolved(1, 1), true);
+    loaded.radius = 1;
+    t.checkExpect(loaded.reachableWhenSolved(1, 1), false);
+    loaded.movePowerStation(1, 0);
+    this.checkDistances(t, loaded);
+
+    // Boards loaded from a file are solved for their hints, even when the solution has a loop
+    PackedBoard extra = new PackedBoard(6, 5, new LightEmAll(6, 5, false, 2L).solution.clone());
+    extra.connect(7, PackedBoard.BOTTOM);
+    for (int i = 0; i < extra.size(); i++) {
+      extra.rotate(i, i % 3);
+    }
+    LightEmAll[] saved = {new LightEmAll(ring, 0, 0, 2), new LightEmAll(extra, 3, 2, 11),
+      new LightEmAll(64, 64, LightEmAll.RANDOM_TREE, 5L)};
+    LightEmAll[] opened = new LightEmAll[saved.length];
+    for (int b = 0; b < saved.length; b++) {
+      ByteBuffer file = ByteBuffer.allocate((int) BoardCodec.encodedSize(saved[b].width,
+        saved[b].height));
+      BoardCodec.encode(saved[b], file);
+      file.flip();
+      try {
+        opened[b] = BoardCodec.decode(file);
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      t.checkExpect(opened[b].solution, null);
+      this.checkDistances(t, opened[b]);
+    }
+    t.checkExpect(opened[0].reachableWhenSolved(1, 1), true);
+    t.checkExpect(opened[0].distanceField().tree, false);
+    t.checkExpect(opened[1].distanceField().outOfRange(11, new int[30]), 0);
+    t.checkExpect(opened[1].distanceField().tree, false);
+  }
+
+  // Purpose: Checks every distance and range hint of the game against a fresh search over its
+  // solved wiring
+  void checkDistances(Tester t, LightEmAll game) {
+    DistanceField field = game.distanceField();
+    PackedBoard solved = new PackedBoard(game.width, game.height, game.solution.clone());
+    BfsEngine bfs = new BfsEngine(solved.size());
+    int reached = bfs.search(solved, game.indexOf(game.powerCol, game.powerRow),
+      Integer.MAX_VALUE);
+    int[] expected = new int[solved.size()];
+    Arrays.fill(expected, -1);
+    for (int i = 0; i < reached; i++) {
+      expected[bfs.queue[i]] = bfs.dist[bfs.queue[i]];
+    }
+
+    int[] actual = new int[solved.size()];
+    int outside = 0;
+    boolean hintsAgree = true;
+    for (int i = 0; i < actual.length; i++) {
+      actual[i] = field.distance(i);
+      boolean reachable = expected[i] >= 0 && expected[i] <= game.radius;
+      outside += reachable ? 0 : 1;
+      hintsAgree &= game.reachableWhenSolved(i % game.width, i / game.width) == reachable;
+    }
+    t.checkExpect(actual, expected);
+    t.checkExpect(hintsAgree, true);
+    t.checkExpect(field.outOfRange(game.radius, new int[actual.length]), outside);
+  }
+
+  // Test that undo and redo walk back and forth through exactly the states the game was in,
+  // one action at a time and in long jumps, with and without recorded power changes
+  void testUndoJournal(Tester t) {
+    int[] layouts = {LightEmAll.MANUAL, LightEmAll.FRACTAL, LightEmAll.RANDOM_TREE};
+    Random rand = new Random(21);
+    String[] keys = {"up", "down", "left", "right"};
+    for (int layout : layouts) {
+      LightEmAll game = new LightEmAll(10, 8, layout, 5L);
+      game.journal = new UndoJournal(game);
+      UndoJournal journal = game.journal;
+      ArrayList<byte[]> boards = new ArrayList<byte[]>();
+      ArrayList<long[]> powered = new ArrayList<long[]>();
+      ArrayList<Integer> stations = new ArrayList<Integer>();
+      game.refreshPower();
+      boards.add(game.wires.masks.clone());
+      powered.add(game.poweredBits.clone());
+      stations.add(game.indexOf(game.powerCol, game.powerRow));
+      for (int i = 0; i < 300 && !game.allPowered(); i++) {
+        int before = journal.count;
+        if (rand.nextInt(4) == 0) {
+          game.onKeyEvent(keys[rand.nextInt(4)]);
+        }
+        else {
+          game.onMouseClicked(new Posn(rand.nextInt(10 * 50), rand.nextInt(8 * 50)));
+        }
+        if (journal.count > before) {
+          game.refreshPower();
+          boards.add(game.wires.masks.clone());
+          powered.add(game.poweredBits.clone());
+          stations.add(game.indexOf(game.powerCol, game.powerRow));
+        }
+      }
+      int actions = journal.count;
+      t.checkExpect(actions, boards.size() - 1);
+      t.checkExpect(journal.snapshots.size(), actions / UndoJournal.SNAPSHOT_EVERY + 1);
+
+      // Rotations made while power was up to date are recorded, whatever the radius
+      boolean anyRecorded = false;
+      for (int k = 0; k < actions; k++) {
+        anyRecorded |= journal.recordEnd[k] >= 0;
+      }
+      t.checkExpect(anyRecorded, true);
+
+      boolean matches = true;
+      while (journal.canUndo()) {
+        journal.undo();
+        game.refreshPower();
+        matches &= this.journalStateIs(game, boards, powered, stations, journal.cursor);
+      }
+      t.checkExpect(journal.undo(), false);
+      while (journal.canRedo()) {
+        journal.redo();
+        game.refreshPower();
+        matches &= this.journalStateIs(game, boards, powered, stations, journal.cursor);
+      }
+      t.checkExpect(matches, true);
+
+      // Long jumps go through snapshots, short ones step
+      int[] targets = {actions - 150, 3, actions, 70, 0, actions - 1};
+      for (int target : targets) {
+        if (target < journal.cursor) {
+          journal.undo(journal.cursor - target);
+        }
+        else {
+          journal.redo(target - journal.cursor);
+        }
+        game.refreshPower();
+        t.checkExpect(journal.cursor, target);
+        t.checkExpect(this.journalStateIs(game, boards, powered, stations, target), true);
+      }
+      t.checkExpect(journal.redo(1000), 1);
+
+      // A new action after an undo forgets what could have been redone
+      journal.undo(100);
+      game.onMouseClicked(new Posn(25, 25));
+      t.checkExpect(journal.count, actions - 99);
+      t.checkExpect(journal.canRedo(), false);
+      t.checkExpect(journal.snapshots.get(journal.snapshots.size() - 1).action
+        <= journal.cursor, true);
+
+      // A new puzzle starts a new history
+      game.generate(6L);
+      t.checkExpect(journal.canUndo(), false);
+      t.checkExpect(journal.snapshots.size(), 1);
+    }
+
+    // Snapshots share the pages nothing touched
+    LightEmAll wide = new LightEmAll(128, 64, LightEmAll.RANDOM_TREE, 2L);
+    wide.journal = new UndoJournal(wide);
+    for (int i = 0; i < UndoJournal.SNAPSHOT_EVERY; i++) {
+      wide.onMouseClicked(new Posn(25 + 50 * (i % 8), 25));
+    }
+    ArrayList<byte[][]> pages = new ArrayList<byte[][]>();
+    for (int s = 0; s < wide.journal.snapshots.size(); s++) {
+      pages.add(wide.journal.snapshots.get(s).pages);
+    }
+    t.checkExpect(pages.size(), 2);
+    t.checkExpect(pages.get(0).length, 2);
+    t.checkExpect(pages.get(1)[0] == pages.get(0)[0], false);
+    t.checkExpect(pages.get(1)[1] == pages.get(0)[1], true);
+  }
+
+  // Purpose: Checks whether the game is in the state recorded after the given action
+  boolean journalStateIs(LightEmAll game, ArrayList<byte[]> boards, ArrayList<long[]> powered,
+    ArrayList<Integer> stations, int action) {
+    return Arrays.equals(game.wires.masks, boards.get(action))
+      && Arrays.equals(game.poweredBits, powered.get(action))
+      && game.indexOf(game.powerCol, game.powerRow) == stations.get(action);
+  }
+
+  // Test that the tile grid finds the tile under any pixel at any tile size, and that clicks
+  // and drawing follow it
+  void testTileGrid(Tester t) {
+    TileGrid grid = new TileGrid(4, 3, 30);
+    t.checkExpect(grid.column(0), 0);
+    t.checkExpect(grid.column(29), 0);
+    t.checkExpect(grid.column(30), 1);
+    t.checkExpect(grid.column(119), 3);
+    t.checkExpect(grid.column(120), -1);
+    t.checkExpect(grid.column(-1), -1);
+    t.checkExpect(grid.row(89), 2);
+    t.checkExpect(grid.row(90), -1);
+    t.checkExpect(grid.centerX(1), 45);
+    t.checkExpect(grid.centerY(2), 75);
+    t.checkExpect(grid.pixelWidth(), 120);
+    t.checkExpect(grid.pixelHeight(), 90);
+    t.checkExpect(grid.wireWidth, 3);
+    t.checkConstructorException(
+      new IllegalArgumentException("Unsupported tile size 0 for a 4x3 board"), "TileGrid", 4, 3,
+      0);
+
+    LightEmAll game = new LightEmAll(4, 3, LightEmAll.FRACTAL, 1L);
+    t.checkExpect(game.grid().tileSize, LightEmAll.TILE_SIZE);
+    game.setTileSize(30);
+    int index = game.indexOf(1, 2);
+    int mask = game.wires.mask(index);
+    game.onMouseClicked(new Posn(59, 89));
+    t.checkExpect(game.wires.mask(index), PackedBoard.rotateMask(mask, 1));
+
+    // Pixels just off the board, which division would round onto it, do nothing
+    byte[] masks = game.wires.masks.clone();
+    game.onMouseClicked(new Posn(-1, 10));
+    game.onMouseClicked(new Posn(10, -1));
+    game.onMouseClicked(new Posn(120, 10));
+    game.onMouseClicked(new Posn(10, 90));
+    t.checkExpect(game.wires.masks, masks);
+    game.makeScene();
+    t.checkExpect(game.tileImages.matches(30, 3), true);
+  }
+
+  // Test that every bound key dispatches to its action and nothing else does
+  void testKeyBindings(Tester t) {
+    for (int action = 0; action < KeyBindings.KEYS.length; action++) {
+      t.checkExpect(KeyBindings.action(KeyBindings.KEYS[action]), action);
+      t.checkExpect(KeyBindings.action(new String(KeyBindings.KEYS[action])), action);
+    }
+    t.checkExpect(KeyBindings.action("space"), KeyBindings.NONE);
+    t.checkExpect(KeyBindings.action(""), KeyBindings.NONE);
+    t.checkExpect(KeyBindings.direction("z"), -1);
+    t.checkExpect(LightEmAll.keyDirection("up"), PackedBoard.TOP);
+    t.checkExpect(LightEmAll.keyDirection("down"), PackedBoard.BOTTOM);
+    t.checkExpect(LightEmAll.keyDirection("left"), PackedBoard.LEFT);
+    t.checkExpect(LightEmAll.keyDirection("right"), PackedBoard.RIGHT);
+  }
+
+  // Test that clicks and key presses allocate nothing once a game is warmed up, with and
+  // without metrics and a scene to patch. Less than a byte per event allows for nothing but
+  // one-off growth, since the smallest object takes 16
+  void testInputAllocation(Tester t) {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)
+      || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+      return;
+    }
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    int events = 20000;
+    Random rand = new Random(25);
+    Posn[] clicks = new Posn[1024];
+    String[] keys = {"up", "down", "left", "right", "space", "z", "y"};
+    int[] layouts = {LightEmAll.MANUAL, LightEmAll.FRACTAL, LightEmAll.RANDOM_TREE};
+    for (int layout : layouts) {
+      for (int round = 0; round < 2; round++) {
+        LightEmAll game = new LightEmAll(32, 32, layout, 4L + round);
+        game.metrics.enabled = round == 1;
+        game.makeScene();
+        for (int i = 0; i < clicks.length; i++) {
+          clicks[i] = new Posn(rand.nextInt(32 * 50), rand.nextInt(32 * 50));
+        }
+        for (int i = 0; i < events; i++) {
+          this.playInput(game, clicks, keys, i);
+        }
+        long before = allocations.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < events; i++) {
+          this.playInput(game, clicks, keys, i);
+        }
+        long allocated = allocations.getCurrentThreadAllocatedBytes() - before;
+        t.checkExpect(allocated < events, true,
+          "layout " + layout + " allocated " + allocated + " bytes");
+        t.checkExpect(game.allPowered(), false);
+      }
+    }
+  }
+
+  // Purpose: Plays the given numbered input on the game: every fourth a key, the rest clicks
+  void playInput(LightEmAll game, Posn[] clicks, String[] keys, int i) {
+    if ((i & 3) == 0) {
+      game.onKeyEvent(keys[(i >>> 2) % keys.length]);
+    }
+    else {
+      game.onMouseClicked(clicks[i & (clicks.length - 1)]);
+    }
+  }
+
+  // Test that batched session commands end where playing them one at a time does, that many
+  // players can share one board, and that snapshots never change once published
+  void testGameSession(Tester t) {
+    try (SessionEngine engine = new SessionEngine()) {
+      LightEmAll played = new LightEmAll(12, 9, true, 6L);
+      GameSession session = engine.open(new LightEmAll(12, 9, true, 6L));
+      PowerSnapshot first = session.snapshot();
+      t.checkExpect(first.version, 0L);
+      t.checkExpect(first.poweredBits, played.poweredBits);
+
+      Random rand = new Random(8);
+      String[] keys = {"up", "down", "left", "right", "space"};
+      for (int i = 0; i < 2000; i++) {
+        if (rand.nextInt(5) == 0) {
+          String key = keys[rand.nextInt(keys.length)];
+          played.onKeyEvent(key);
+          session.press(key);
+        }
+        else {
+          int col = rand.nextInt(12);
+          int row = rand.nextInt(9);
+          played.rotatePiece(col, row);
+          session.click(col, row);
+        }
+      }
+      session.click(-1, 3);
+      session.awaitIdle();
+      played.refreshPower();
+
+      PowerSnapshot last = session.snapshot();
+      t.checkExpect(last.won, false);
+      t.checkExpect(last.masks, played.wires.masks);
+      t.checkExpect(last.poweredBits, played.poweredBits);
+      t.checkExpect(last.poweredCount, played.poweredCount);
+      t.checkExpect(last.powerCol, played.powerCol);
+      t.checkExpect(last.powerRow, played.powerRow);
+      t.checkExpect(last.version >= 1, true);
+      t.checkExpect(first.poweredBits, new LightEmAll(12, 9, true, 6L).poweredBits);
+
+      // Four players each turn every tile of the first row a multiple of four times
+      GameSession shared = engine.open(new LightEmAll(12, 9, true, 6L));
+      byte[] before = shared.snapshot().masks;
+      Thread[] players = new Thread[4];
+      for (int p = 0; p < players.length; p++) {
+        players[p] = new Thread(() -> {
+          for (int i = 0; i < 12 * 100; i++) {
+            shared.click(i % 12, 0);
+          }
+        });
+        players[p].start();
+      }
+      for (Thread player : players) {
+        player.join();
+      }
+      shared.awaitIdle();
+      t.checkExpect(shared.snapshot().masks, before);
+      t.checkExpect(shared.game.wires.masks, before);
+    }
+    catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+
+    // A batch stops at the command that wins, and batches that change nothing publish nothing
+    LightEmAll almost = new LightEmAll(6, 6, true, 7L);
+    new PuzzleSolver().solve(almost).applyTo(almost);
+    int tile = 0;
+    while (PackedBoard.rotateMask(almost.wires.mask(tile), 1) == almost.wires.mask(tile)) {
+      tile++;
+    }
+    almost.rotatePiece(tile % 6, tile / 6);
+    int other = (tile + 1) % 36;
+    ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+    GameSession held = new GameSession(almost, tasks::add);
+    PowerSnapshot start = held.snapshot();
+    for (int i = 0; i < 3; i++) {
+      held.click(tile % 6, tile / 6);
+    }
+    held.click(other % 6, other / 6);
+    int otherMask = almost.wires.mask(other);
+    tasks.remove(0).run();
+    t.checkExpect(held.snapshot() == start, false);
+    t.checkExpect(held.snapshot().won, true);
+    t.checkExpect(held.snapshot().commandsApplied, 4L);
+    t.checkExpect(almost.wires.mask(other), otherMask);
+    PowerSnapshot won = held.snapshot();
+    held.click(other % 6, other / 6);
+    held.press("left");
+    tasks.remove(0).run();
+    t.checkExpect(held.snapshot() == won, true);
+    t.checkExpect(held.batches, 2L);
+    t.checkExpect(held.commandsApplied, 6L);
+    t.checkExpect(tasks.isEmpty(), true);
+
+    // Commands from one thread come out of the queue in order
+    CommandQueue queue = new CommandQueue();
+    t.checkExpect(queue.isEmpty(), true);
+    for (int i = 0; i < 5; i++) {
+      queue.offer(i * 10);
+    }
+    int[] out = new int[3];
+    t.checkExpect(queue.drainTo(out, 3), 3);
+    t.checkExpect(out, new int[] {0, 10, 20});
+    t.checkExpect(queue.drainTo(out, 3), 2);
+    t.checkExpect(out[1], 40);
+    t.checkExpect(queue.isEmpty(), true);
+  }
+
+  // Test that the raster renderer draws each tile's sprite in place, the same in parallel
+  // bands as in one pass, and exports a pack as PNG thumbnails
+  void testRasterRenderer(Tester t) {
+    PackedBoard line = new PackedBoard(3, 1);
+    line.connect(0, PackedBoard.RIGHT);
+    line.connect(1, PackedBoard.RIGHT);
+    LightEmAll game = new LightEmAll(line, 0, 0, 5);
+    RasterRenderer renderer = new RasterRenderer(10, 2);
+    int[] pixels = renderer.render(game, null);
+    t.checkExpect(pixels.length, 300);
+    t.checkExpect(pixels[0], Color.DARK_GRAY.getRGB());
+    t.checkExpect(pixels[5 * 30 + 5], Color.CYAN.getRGB());
+    t.checkExpect(pixels[4 * 30 + 15], Color.YELLOW.getRGB());
+    t.checkExpect(pixels[1 * 30 + 15], Color.DARK_GRAY.getRGB());
+
+    // The last tile turns to point up and loses power
+    game.rotatePiece(2, 0);
+    t.checkExpect(renderer.render(game, pixels) == pixels, true);
+    t.checkExpect(pixels[1 * 30 + 24], Color.GRAY.getRGB());
+    t.checkExpect(pixels[4 * 30 + 15], Color.YELLOW.getRGB());
+    BufferedImage image = renderer.renderImage(game);
+    t.checkExpect(image.getWidth(), 30);
+    t.checkExpect(image.getRGB(4, 1), pixels[1 * 30 + 4]);
+
+    LightEmAll big = new LightEmAll(200, 100, LightEmAll.RANDOM_TREE, 4L);
+    RasterRenderer small = new RasterRenderer(2, 1);
+    int[] parallel = small.render(big, null);
+    int[] sequential = new int[parallel.length];
+    small.renderRows(big, sequential, 0, big.height);
+    t.checkExpect(parallel, sequential);
+
+    try {
+      Path packFile = Files.createTempFile("lightemall", ".pack");
+      Path directory = Files.createTempDirectory("thumbnails");
+      ArrayList<LightEmAll> games = new ArrayList<LightEmAll>();
+      games.add(new LightEmAll(4, 3, true, 1L));
+      games.add(new LightEmAll(5, 5, LightEmAll.RANDOM_TREE, 2L));
+      BoardPack.write(packFile, games);
+      try (BoardPack pack = new BoardPack(packFile)) {
+        t.checkExpect(small.exportPack(pack, directory), 2);
+      }
+      Path thumbnail = directory.resolve("board-000001.png");
+      BufferedImage read = ImageIO.read(thumbnail.toFile());
+      t.checkExpect(read.getWidth(), 10);
+      t.checkExpect(read.getHeight(), 10);
+      Files.delete(directory.resolve("board-000000.png"));
+      Files.delete(thumbnail);
+      Files.delete(directory);
+      Files.delete(packFile);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Test that the tile image cache hands out one shared image per tile appearance
+  void testTileImageCache(Tester t) {
+    TileImageCache cache = new TileImageCache(50, 5);
+    WorldImage powered = cache.get(5, Color.YELLOW, false);
+    t.checkExpect(cache.get(5, Color.YELLOW, false) == powered, true);
+    t.checkExpect(cache.get(5, new Color(255, 255, 0), false) == powered, true);
+    t.checkExpect(cache.get(5, Color.GRAY, false) == powered, false);
+    t.checkExpect(cache.get(5, Color.YELLOW, true) == powered, false);
+    t.checkExpect(cache.get(6, Color.YELLOW, false) == powered, false);
+    t.checkExpect(cache.colors.size(), 2);
+    t.checkExpect(cache.matches(50, 5), true);
+    t.checkExpect(cache.matches(40, 5), false);
+  }
+
+  // Test that makeScene reuses its scene and only tracks tiles that changed
+  void testDirtyScene(Tester t) {
+    LightEmAll game = new LightEmAll(6, 6);
+    WorldScene first = game.makeScene();
+    t.checkExpect(game.makeScene() == first, true);
+    t.checkExpect(game.dirtyCount, 0);
+
+    game.rotatePiece(0, 0);
+    t.checkExpect(game.dirtyCount >= 1, true);
+    t.checkExpect(game.dirtyTiles[0], game.indexOf(0, 0));
+    // Winning changes the message, which needs a full redraw
+    boolean won = game.allPowered();
+    t.checkExpect(game.makeScene() == first, !won);
+    t.checkExpect(game.dirtyCount, 0);
+
+    game.scrambleBoard();
+    game.updatePower();
+    t.checkExpect(game.makeScene() == first, false);
+
+    game.reuseScene = false;
+    WorldScene second = game.makeScene();
+    t.checkExpect(game.makeScene() == second, false);
+
+    // The list of changed tiles grows past its first size when a frame changes many tiles
+    LightEmAll wide = new LightEmAll(64, 64, true, 2L);
+    wide.makeScene();
+    t.checkExpect(wide.dirtyTiles.length, 1024);
+    for (int i = 0; i < 3000; i++) {
+      wide.markDirty(i);
+    }
+    t.checkExpect(wide.dirtyCount, 3000);
+    t.checkExpect(wide.dirtyTiles[2999], 2999);
+    wide.makeScene();
+    t.checkExpect(wide.dirtyCount, 0);
+  }
+
+  // Test that parallel fractal generation writes exactly the same masks as the sequential one
+  void testParallelFractalWiring(Tester t) {
+    LightEmAll game = new LightEmAll(301, 257, true);
+    game.initializeFractalBoard();
+    byte[] parallel = game.wires.masks.clone();
+
+    Arrays.fill(game.wires.masks, (byte) 0);
+    game.generateFractalWiring(0, 0, game.width, game.height);
+    t.checkExpect(parallel, game.wires.masks);
+  }
+
+  // Test that the random tree layout spans every tile without a loop, is fixed by its seed
+  // whatever board the buffers were last used for, and keeps its layout through a save
+  void testRandomTreeWiring(Tester t) {
+    int[][] sizes = {{1, 1}, {2, 1}, {5, 5}, {13, 7}, {40, 64}};
+    for (int[] size : sizes) {
+      LightEmAll game = new LightEmAll(size[0], size[1], LightEmAll.RANDOM_TREE, 21L);
+      int tiles = game.wires.size();
+      for (long seed = 0; seed < 3; seed++) {
+        game.initializeRandomTreeBoard(seed);
+        int wireEnds = 0;
+        for (int i = 0; i < tiles; i++) {
+          wireEnds += Integer.bitCount(game.wires.linkedMask(i));
+        }
+        t.checkExpect(wireEnds, 2 * (tiles - 1));
+        t.checkExpect(game.bfs.search(game.wires, 0, tiles), tiles);
+        t.checkExpect(game.bfs.treeDiameter(game.wires, 0) >= 0, true);
+      }
+      game.generate(21L);
+      t.checkExpect(game.wires.masks,
+        new LightEmAll(size[0], size[1], LightEmAll.RANDOM_TREE, 21L).wires.masks);
+      int radius = game.radius;
+      game.initializeRandomTreeBoard(21L);
+      t.checkExpect(radius, game.calculateRadius());
+    }
+
+    LightEmAll a = new LightEmAll(30, 30, LightEmAll.RANDOM_TREE, 1L);
+    LightEmAll b = new LightEmAll(30, 30, LightEmAll.RANDOM_TREE, 2L);
+    t.checkExpect(Arrays.equals(a.wires.masks, b.wires.masks), false);
+    t.checkExpect(a.powerCol, 15);
+    t.checkExpect(a.powerRow, 15);
+
+    ByteBuffer saved = ByteBuffer.allocate((int) BoardCodec.encodedSize(30, 30));
+    BoardCodec.encode(a, saved);
+    saved.flip();
+    try {
+      t.checkExpect(BoardCodec.decode(saved).layout, LightEmAll.RANDOM_TREE);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    t.checkExpect(LightEmAll.layoutNamed("random"), LightEmAll.RANDOM_TREE);
+    String message = "";
+    try {
+      LightEmAll.layoutNamed("spiral");
+    }
+    catch (IllegalArgumentException e) {
+      message = e.getMessage();
+    }
+    t.checkExpect(message, "Unknown layout: spiral");
+  }
+
+  // Test that the single-traversal tree diameter agrees with the two-search diameter
+  void testTreeDiameter(Tester t) {
+    int[][] sizes = {{1, 1}, {2, 2}, {5, 5}, {8, 8}, {13, 7}, {16, 16}};
+    for (int[] size : sizes) {
+      LightEmAll game = new LightEmAll(size[0], size[1], true);
+      game.initializeFractalBoard();
+      int start = game.indexOf(game.powerCol, game.powerRow);
+      int farthest = game.findFarthestNode(start);
+      t.checkExpect(game.bfs.treeDiameter(game.wires, start),
+        game.findFarthestDistance(farthest));
+    }
+
+    // A 2x2 ring is not a tree
+    LightEmAll ring = new LightEmAll(2, 2, true);
+    ring.wires.connect(0, PackedBoard.RIGHT);
+    ring.wires.connect(0, PackedBoard.BOTTOM);
+    ring.wires.connect(3, PackedBoard.LEFT);
+    ring.wires.connect(3, PackedBoard.TOP);
+    t.checkExpect(ring.bfs.treeDiameter(ring.wires, 0), -1);
+    t.checkExpect(ring.findFarthestDistance(0), 2);
+  }
+
+  // Test that solutions found by the solver light the whole board
+  void testPuzzleSolver(Tester t) {
+    PuzzleSolver solver = new PuzzleSolver();
+    LightEmAll[] games = {new LightEmAll(5, 5), new LightEmAll(8, 8, true),
+      new LightEmAll(16, 16, true), new LightEmAll(9, 6), new LightEmAll(12, 12)};
+    for (LightEmAll game : games) {
+      PuzzleSolution solution = solver.solve(game);
+      t.checkExpect(solution != null, true);
+      solution.applyTo(game);
+      t.checkExpect(game.allPowered(), true);
+    }
+    t.checkExpect(solver.boardsSolved, 5L);
+
+    // A scrambled ring and a manual board with one extra link only light up with a loop
+    PackedBoard ring = new PackedBoard(2, 2);
+    for (int i = 0; i < 4; i++) {
+      ring.setMask(i, (1 << PackedBoard.RIGHT) | (1 << PackedBoard.BOTTOM));
+    }
+    LightEmAll manual = new LightEmAll(5, 5, false, 4L);
+    PackedBoard extra = new PackedBoard(5, 5, manual.solution.clone());
+    extra.connect(0, PackedBoard.BOTTOM);
+    for (int i = 0; i < extra.size(); i++) {
+      extra.rotate(i, i % 4);
+    }
+    LightEmAll[] loops = {new LightEmAll(ring, 0, 0, 2), new LightEmAll(extra, 2, 2, 10)};
+    for (LightEmAll game : loops) {
+      PuzzleSolution solution = solver.solve(game);
+      t.checkExpect(solution != null, true);
+      solution.applyTo(game);
+      t.checkExpect(game.allPowered(), true);
+    }
+
+    // Random trees have many wirings that connect every tile, but only some fit the radius
+    for (long seed = 0; seed < 3; seed++) {
+      LightEmAll game = new LightEmAll(64, 64, LightEmAll.RANDOM_TREE, seed);
+      long guesses = solver.guesses;
+      PuzzleSolution solution = solver.solve(game);
+      t.checkExpect(solution != null, true);
+      t.checkExpect(solver.guesses - guesses < 2000, true);
+      solution.applyTo(game);
+      t.checkExpect(game.allPowered(), true);
+    }
+    t.checkExpect(solver.boardsSolved, 10L);
+  }
+
+  // Test that a seed fully determines the scramble, including boards split into many chunks
+  void testSeededScramble(Tester t) {
+    LightEmAll a = new LightEmAll(300, 200, true, 7L);
+    LightEmAll b = new LightEmAll(300, 200, true, 7L);
+    LightEmAll c = new LightEmAll(300, 200, true, 8L);
+    t.checkExpect(a.wires.masks, b.wires.masks);
+    t.checkExpect(Arrays.equals(a.wires.masks, c.wires.masks), false);
+    t.checkExpect(a.poweredBits, b.poweredBits);
+
+    // Scrambling with a seed is the same as rotating by the chunk streams one tile at a time
+    LightEmAll manual = new LightEmAll(200, 100, false, 3L);
+    byte[] before = manual.wires.masks.clone();
+    manual.scrambleBoard(11L);
+    SplittableRandom root = new SplittableRandom(11L);
+    SplittableRandom rand = null;
+    for (int i = 0; i < before.length; i++) {
+      if (i % LightEmAll.SCRAMBLE_CHUNK == 0) {
+        rand = root.split();
+      }
+      before[i] = (byte) PackedBoard.rotateMask(before[i], rand.nextInt(4));
+    }
+    t.checkExpect(manual.wires.masks, before);
+  }
+
   // Test that the power station starts in the correct place
   void testPowerStationStart(Tester t) {
     LightEmAll game = new LightEmAll(4, 4);
@@ -574,6 +2197,6 @@ void testUpdatePower(Tester t) {
     // LightEmAll game = new LightEmAll(4, 4);
     // Testing for Fractal Game
     LightEmAll game = new LightEmAll(4, 4, true);
-    game.bigBang(game.width * 50, game.height * 50, 0.2);
+    game.bigBang(game.grid().pixelWidth(), game.grid().pixelHeight(), 0.2);
   }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+import java.nio.ByteBuffer;
+
+// A PackedBoard whose masks live in a ByteBuffer, packed two to a byte with the even tile in the
+// low nibble, so a board mapped from a file by BoardCodec is used in place without copying.
+// A read-only buffer is copied to the heap the first time a mask is written, so a mapped file
+// is never changed. Because neighboring tiles share a byte, two threads must never write the
+// same pair of tiles.
+class MappedBoard extends PackedBoard {
+  ByteBuffer nibbles; // wire masks of every tile, two per byte
+
+  // Creates a board of the given size over masks packed in the given buffer, starting at index 0
+  MappedBoard(int width, int height, ByteBuffer nibbles) {
+    super(width, height, null);
+    this.nibbles = nibbles;
+  }
+
+  // Purpose: Returns the wire mask of the tile at the given index
+  int mask(int index) {
+    return (this.nibbles.get(index >>> 1) >>> ((index & 1) << 2)) & 0xF;
+  }
+
+  // Purpose: Stores the wire mask of the tile at the given index
+  void writeMask(int index, int mask) {
+    this.makeWritable();
+    int shift = (index & 1) << 2;
+    int pair = this.nibbles.get(index >>> 1);
+    this.nibbles.put(index >>> 1, (byte) ((pair & ~(0xF << shift)) | (mask << shift)));
+  }
+
+  // Purpose: Removes every wire from the board
+  void clear() {
+    this.links = null;
+    this.makeWritable();
+    int bytes = (this.size() + 1) >>> 1;
+    for (int i = 0; i < bytes; i++) {
+      this.nibbles.put(i, (byte) 0);
+    }
+  }
+
+  // Purpose: Replaces a read-only buffer with a writable copy of it
+  void makeWritable() {
+    if (this.nibbles.isReadOnly()) {
+      ByteBuffer copy = ByteBuffer.allocate(this.nibbles.capacity());
+      copy.put(0, this.nibbles, 0, this.nibbles.capacity());
+      this.nibbles = copy;
+    }
+  }
+
+  // Purpose: Checks whether several threads may write to this board at once
+  boolean concurrentWritable() {
+    return false;
+  }
+}
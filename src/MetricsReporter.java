@@ -0,0 +1,28 @@
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Hands a snapshot of a game's metrics to a consumer at a fixed period, on a daemon thread,
+// for example System.out::print or a logger. Closing it stops the reports.
+class MetricsReporter implements Closeable {
+  ScheduledExecutorService timer; // runs the periodic reports
+
+  // Starts reporting the given game's metrics every period milliseconds, enabling them
+  MetricsReporter(LightEmAll game, long periodMillis, Consumer<String> out) {
+    game.metrics.enabled = true;
+    this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "metrics-reporter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.timer.scheduleAtFixedRate(() -> out.accept(game.metrics.snapshot(game)),
+      periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // Purpose: Stops reporting
+  public void close() {
+    this.timer.shutdownNow();
+  }
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+// Stores the wiring of every tile on a board as a 4-bit mask in a flat byte array indexed
+// row * width + col. Bit (1 << d) of a mask is set when the tile has a wire in direction d.
+// Searches can also ask for a table of the directions each tile is linked in, built on first
+// use and kept up to date as tiles change, so they follow links by iterating bits instead of
+// testing both wires and the border for every direction.
+class PackedBoard {
+  // Wire directions, numbered clockwise so that rotating adds one and the opposite side adds two
+  static final int LEFT = 0;
+  static final int TOP = 1;
+  static final int RIGHT = 2;
+  static final int BOTTOM = 3;
+
+  int width; // number of columns
+  int height; // number of rows
+  byte[] masks; // wire mask of each tile
+  byte[] links; // directions each tile is linked in, or null until a search needs them
+  int[] offsets; // index offset to the neighbor in each direction
+
+  // Creates a board of the given size with no wires
+  PackedBoard(int width, int height) {
+    this(width, height, new byte[width * height]);
+  }
+
+  // Creates a board of the given size over existing masks, or over none for subclasses that
+  // store their masks some other way
+  PackedBoard(int width, int height, byte[] masks) {
+    this.width = width;
+    this.height = height;
+    this.masks = masks;
+    this.offsets = new int[] {-1, -width, 1, width};
+  }
+
+  // Purpose: Computes the flat index of the tile at the given column and row
+  int index(int col, int row) {
+    return row * this.width + col;
+  }
+
+  // Purpose: Returns the number of tiles on this board
+  int size() {
+    return this.width * this.height;
+  }
+
+  // Purpose: Returns the wire mask of the tile at the given index
+  int mask(int index) {
+    return this.masks[index];
+  }
+
+  // Purpose: Returns a copy of every tile's wire mask, indexed row * width + col
+  byte[] copyMasks() {
+    if (this.masks != null) {
+      return this.masks.clone();
+    }
+    byte[] copy = new byte[this.size()];
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = (byte) this.mask(i);
+    }
+    return copy;
+  }
+
+  // Purpose: Replaces the wire mask of the tile at the given index, keeping the link table of
+  // it and its neighbors up to date if there is one
+  void setMask(int index, int mask) {
+    this.writeMask(index, mask);
+    if (this.links != null) {
+      this.updateLinks(index);
+    }
+  }
+
+  // Purpose: Stores the wire mask of the tile at the given index, and nothing else
+  void writeMask(int index, int mask) {
+    this.masks[index] = (byte) mask;
+  }
+
+  // Purpose: Removes every wire from the board
+  void clear() {
+    this.links = null;
+    Arrays.fill(this.masks, (byte) 0);
+  }
+
+  // Purpose: Returns the directions each tile is linked in, building the table if needed
+  byte[] links() {
+    if (this.links == null) {
+      byte[] links = new byte[this.size()];
+      for (int i = 0; i < links.length; i++) {
+        links[i] = (byte) this.computeLinks(i);
+      }
+      this.links = links;
+    }
+    return this.links;
+  }
+
+  // Purpose: Forgets the link table, before writes it could not keep up with, such as writes
+  // from several threads at once
+  void dropLinks() {
+    this.links = null;
+  }
+
+  // Purpose: Recomputes the link table entries of the tile at the given index and of the
+  // sides of its neighbors that face it
+  void updateLinks(int index) {
+    int own = this.computeLinks(index);
+    this.links[index] = (byte) own;
+    for (int dir = 0; dir < 4; dir++) {
+      int n = this.neighbor(index, dir);
+      if (n >= 0) {
+        int facing = 1 << ((dir + 2) & 3);
+        this.links[n] = (byte) ((own & (1 << dir)) != 0
+          ? this.links[n] | facing : this.links[n] & ~facing);
+      }
+    }
+  }
+
+  // Purpose: Checks whether several threads may write to this board at once, as long as no
+  // two of them write the same tile
+  boolean concurrentWritable() {
+    return true;
+  }
+
+  // Purpose: Checks whether the tile at the given index has a wire in the given direction
+  boolean hasWire(int index, int direction) {
+    return (this.mask(index) & (1 << direction)) != 0;
+  }
+
+  // Purpose: Adds or removes the wire of the tile at the given index in the given direction
+  void setWire(int index, int direction, boolean on) {
+    int mask = this.mask(index);
+    this.setMask(index, on ? mask | (1 << direction) : mask & ~(1 << direction));
+  }
+
+  // Purpose: Adds matching wires between the tile at the given index and its neighbor
+  void connect(int index, int direction) {
+    this.setWire(index, direction, true);
+    this.setWire(this.neighbor(index, direction), (direction + 2) & 3, true);
+  }
+
+  // Purpose: Rotates the tile at the given index 90 degrees clockwise the given number of times
+  void rotate(int index, int turns) {
+    this.setMask(index, rotateMask(this.mask(index), turns));
+  }
+
+  // Purpose: Rotates a wire mask 90 degrees clockwise the given number of times
+  static int rotateMask(int mask, int turns) {
+    int k = turns & 3;
+    return ((mask << k) | (mask >>> (4 - k))) & 0xF;
+  }
+
+  // Purpose: Returns the index of the neighbor in the given direction, or -1 off the board
+  int neighbor(int index, int direction) {
+    if (direction == LEFT) {
+      return index % this.width > 0 ? index - 1 : -1;
+    }
+    else if (direction == TOP) {
+      return index >= this.width ? index - this.width : -1;
+    }
+    else if (direction == RIGHT) {
+      return index % this.width < this.width - 1 ? index + 1 : -1;
+    }
+    else {
+      return index < this.size() - this.width ? index + this.width : -1;
+    }
+  }
+
+  // Purpose: Checks whether the tile at the given index and its neighbor in the given direction
+  // both have wires facing each other
+  boolean linked(int index, int direction) {
+    if (this.links != null) {
+      return (this.links[index] & (1 << direction)) != 0;
+    }
+    int n = this.neighbor(index, direction);
+    return n >= 0 && (this.mask(index) & (1 << direction)) != 0
+      && (this.mask(n) & (1 << ((direction + 2) & 3))) != 0;
+  }
+
+  // Purpose: Returns the directions in which the tile at the given index is linked
+  int linkedMask(int index) {
+    return this.links != null ? this.links[index] : this.computeLinks(index);
+  }
+
+  // Purpose: Works out from the wires alone the directions the tile at the given index is
+  // linked in
+  int computeLinks(int index) {
+    int mask = this.mask(index);
+    int result = 0;
+    for (int dir = 0; dir < 4; dir++) {
+      int n = this.neighbor(index, dir);
+      if (n >= 0 && (mask & (1 << dir)) != 0
+        && (this.mask(n) & (1 << ((dir + 2) & 3))) != 0) {
+        result |= 1 << dir;
+      }
+    }
+    return result;
+  }
+}
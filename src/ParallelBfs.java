@@ -0,0 +1,118 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+// A BfsEngine whose search expands one level of the frontier at a time, splitting large levels
+// into chunks that run in parallel on the common fork/join pool. A tile is claimed by setting
+// its bit in an atomic bitset, so exactly one thread records its distance and parent. The
+// levels come out in order, so queue, dist, parent and visited mean the same as after a
+// sequential search, only the order of tiles within a level can differ.
+class ParallelBfs extends BfsEngine {
+  // Default for chunk
+  static final int CHUNK = 4096;
+
+  int chunk; // frontier tiles expanded by one task
+  AtomicLongArray claimed; // tiles reached by the current search, one bit per tile
+  int[][] found; // tiles each chunk of the current level reached, reused across levels
+  AtomicInteger tail; // number of tiles in queue, including the next level as it grows
+
+  // Creates buffers for boards with the given number of tiles
+  ParallelBfs(int size) {
+    super(size);
+    this.claimed = new AtomicLongArray((size + 63) >>> 6);
+    this.found = new int[0][];
+    this.tail = new AtomicInteger();
+    this.chunk = CHUNK;
+  }
+
+  // Purpose: Runs a breadth-first search over connected wires from start, going no farther
+  // than maxDepth steps, and returns how many tiles were reached
+  int search(PackedBoard wires, int start, int maxDepth) {
+    // Built here, before the workers read it
+    wires.links();
+    this.nextEpoch();
+    for (int i = 0; i < this.claimed.length(); i++) {
+      this.claimed.set(i, 0L);
+    }
+    this.claim(start);
+    this.queue[0] = start;
+    this.dist[start] = 0;
+    this.stamp[start] = this.epoch;
+    this.tail.set(1);
+
+    int levelStart = 0;
+    int levelEnd = 1;
+    for (int depth = 0; depth < maxDepth && levelStart < levelEnd; depth++) {
+      int chunk = this.chunk;
+      int chunks = (levelEnd - levelStart + chunk - 1) / chunk;
+      this.ensureChunks(chunks);
+      if (chunks == 1) {
+        this.expand(wires, 0, levelStart, levelEnd, depth);
+      }
+      else {
+        int from = levelStart;
+        int to = levelEnd;
+        int d = depth;
+        IntStream.range(0, chunks).parallel().forEach(c ->
+          this.expand(wires, c, from + c * chunk, Math.min(from + (c + 1) * chunk, to), d));
+      }
+      levelStart = levelEnd;
+      levelEnd = this.tail.get();
+    }
+    return levelEnd;
+  }
+
+  // Purpose: Claims every unvisited tile linked to the frontier tiles in queue[from, to), then
+  // appends them to queue in one block
+  void expand(PackedBoard wires, int chunk, int from, int to, int depth) {
+    int[] found = this.found[chunk];
+    int count = 0;
+    int epoch = this.epoch;
+    byte[] links = wires.links;
+    int[] offsets = wires.offsets;
+    for (int i = from; i < to; i++) {
+      int current = this.queue[i];
+      int open = links[current];
+      while (open != 0) {
+        int n = current + offsets[Integer.numberOfTrailingZeros(open)];
+        open &= open - 1;
+        if (this.claim(n)) {
+          this.dist[n] = depth + 1;
+          this.parent[n] = current;
+          this.stamp[n] = epoch;
+          found[count++] = n;
+        }
+      }
+    }
+    int at = this.tail.getAndAdd(count);
+    System.arraycopy(found, 0, this.queue, at, count);
+  }
+
+  // Purpose: Sets the bit of the given tile, returning true if this call was the one to set it
+  boolean claim(int index) {
+    int word = index >>> 6;
+    long bit = 1L << index;
+    long bits = this.claimed.get(word);
+    while ((bits & bit) == 0) {
+      if (this.claimed.compareAndSet(word, bits, bits | bit)) {
+        return true;
+      }
+      bits = this.claimed.get(word);
+    }
+    return false;
+  }
+
+  // Purpose: Makes sure there are scratch buffers for at least the given number of chunks, each
+  // big enough for the four neighbors of every tile in a chunk
+  void ensureChunks(int chunks) {
+    if (this.found.length >= chunks && this.found[0].length >= 4 * this.chunk) {
+      return;
+    }
+    int[][] grown = new int[chunks][];
+    for (int c = 0; c < chunks; c++) {
+      grown[c] = c < this.found.length && this.found[c].length >= 4 * this.chunk
+        ? this.found[c] : new int[4 * this.chunk];
+    }
+    this.found = grown;
+  }
+}
@@ -0,0 +1,56 @@
+import java.util.concurrent.RecursiveAction;
+
+// Generates fractal wiring for one region of a LightEmAll board on a fork/join pool. The four
+// quadrants of a region never share a tile, so they are wired concurrently, and the stitches
+// between them are added only after all four have joined. Every write sets a wire bit, so the
+// resulting masks are identical to LightEmAll.generateFractalWiring.
+class ParallelFractalWiring extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  // Regions with fewer tiles than this are wired sequentially
+  static final int THRESHOLD = 128 * 128;
+
+  LightEmAll game; // the game whose board is wired
+  int startCol; // leftmost column of the region
+  int startRow; // top row of the region
+  int regionWidth; // number of columns in the region
+  int regionHeight; // number of rows in the region
+
+  ParallelFractalWiring(LightEmAll game, int startCol, int startRow,
+    int regionWidth, int regionHeight) {
+    this.game = game;
+    this.startCol = startCol;
+    this.startRow = startRow;
+    this.regionWidth = regionWidth;
+    this.regionHeight = regionHeight;
+  }
+
+  // Purpose: Wires this region, forking its quadrants when it is large enough
+  protected void compute() {
+    if ((long) this.regionWidth * this.regionHeight < THRESHOLD) {
+      this.game.generateFractalWiring(this.startCol, this.startRow,
+        this.regionWidth, this.regionHeight);
+      return;
+    }
+    if (this.game.wireFractalBase(this.startCol, this.startRow,
+      this.regionWidth, this.regionHeight)) {
+      return;
+    }
+
+    int leftWidth = LightEmAll.fractalSplit(this.regionWidth);
+    int topHeight = LightEmAll.fractalSplit(this.regionHeight);
+    int rightWidth = this.regionWidth - leftWidth;
+    int bottomHeight = this.regionHeight - topHeight;
+    int midCol = this.startCol + leftWidth;
+    int midRow = this.startRow + topHeight;
+
+    invokeAll(
+      new ParallelFractalWiring(this.game, this.startCol, this.startRow, leftWidth, topHeight),
+      new ParallelFractalWiring(this.game, midCol, this.startRow, rightWidth, topHeight),
+      new ParallelFractalWiring(this.game, this.startCol, midRow, leftWidth, bottomHeight),
+      new ParallelFractalWiring(this.game, midCol, midRow, rightWidth, bottomHeight));
+
+    this.game.stitchFractalQuadrants(this.startCol, this.startRow,
+      this.regionWidth, this.regionHeight, midCol, midRow);
+  }
+}
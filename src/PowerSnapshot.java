@@ -0,0 +1,40 @@
+// An immutable copy of what a GameSession's board looked like after one batch of commands:
+// its wires, which tiles had power and where the power station stood. Readers can draw or
+// inspect it from any thread while the session goes on changing the game itself.
+class PowerSnapshot {
+  final long version; // number of batches the session had applied
+  final long commandsApplied; // number of commands the session had taken from its queue
+  final int width; // number of columns
+  final int height; // number of rows
+  final byte[] masks; // wire mask of every tile, indexed row * width + col
+  final long[] poweredBits; // tiles receiving power, one bit per tile
+  final int poweredCount; // number of tiles receiving power
+  final int powerCol; // column of the main power station
+  final int powerRow; // row of the main power station
+  final boolean won; // whether every tile had power
+
+  // Copies the current state of the given game, whose power must be up to date
+  PowerSnapshot(LightEmAll game, long version, long commandsApplied) {
+    byte[] masks = game.wires.copyMasks();
+    this.version = version;
+    this.commandsApplied = commandsApplied;
+    this.width = game.width;
+    this.height = game.height;
+    this.masks = masks;
+    this.poweredBits = game.poweredBits.clone();
+    this.poweredCount = game.poweredCount;
+    this.powerCol = game.powerCol;
+    this.powerRow = game.powerRow;
+    this.won = game.poweredCount == masks.length;
+  }
+
+  // Purpose: Checks whether the tile at the given index had power
+  boolean isPowered(int index) {
+    return (this.poweredBits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  // Purpose: Returns the wire mask the tile at the given index had
+  int mask(int index) {
+    return this.masks[index];
+  }
+}
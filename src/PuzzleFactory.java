@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Mass-produces puzzles of one size and layout as a pipeline. A pool of workers each reuses a
+// single LightEmAll: it lays out the board, measures the radius, scrambles it, checks that the
+// scramble did not happen to solve it, and encodes it into a free buffer. The thread that runs
+// the factory hands finished buffers to a sink and returns them to the free pool. There are
+// only a fixed number of buffers, so workers wait whenever the sink falls behind.
+class PuzzleFactory {
+  // Scrambles tried on one board before it is accepted even though it is already solved,
+  // which only happens on boards too small to be scrambled
+  static final int MAX_SCRAMBLES = 16;
+
+  int width; // number of columns of every board
+  int height; // number of rows of every board
+  int layout; // how boards are wired: LightEmAll.MANUAL, FRACTAL or RANDOM_TREE
+  int workers; // number of worker threads
+  int buffers; // number of encoded boards that may be waiting for the sink at once
+
+  AtomicLong boardsMade = new AtomicLong(); // boards handed to the sink so far
+  AtomicLong rescrambles = new AtomicLong(); // scrambles thrown away because they were solved
+  AtomicLong workerNanos = new AtomicLong(); // time workers spent making and encoding boards
+  AtomicLong stallNanos = new AtomicLong(); // time workers spent waiting for a free buffer
+  long sinkNanos; // time spent inside the sink
+  long nanosSpent; // wall-clock time spent producing
+
+  // Creates a factory for boards of the given size and layout
+  PuzzleFactory(int width, int height, int layout, int workers, int buffers) {
+    if (workers <= 0 || buffers <= 0) {
+      throw new IllegalArgumentException("Need at least one worker and one buffer");
+    }
+    this.width = width;
+    this.height = height;
+    this.layout = layout;
+    this.workers = workers;
+    this.buffers = buffers;
+  }
+
+  // Purpose: Makes the given number of puzzles and hands each to the sink, on this thread, in
+  // whatever order they finish. Board i is determined by the seed and i alone, however many
+  // workers there are
+  void produce(long count, long seed, PuzzleSink sink) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    int bytes = (int) BoardCodec.encodedSize(this.width, this.height);
+    BlockingQueue<PuzzleSlot> free = new ArrayBlockingQueue<PuzzleSlot>(this.buffers);
+    BlockingQueue<PuzzleSlot> done = new ArrayBlockingQueue<PuzzleSlot>(this.buffers);
+    for (int i = 0; i < this.buffers; i++) {
+      free.add(new PuzzleSlot(ByteBuffer.allocate(bytes)));
+    }
+
+    AtomicLong next = new AtomicLong();
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[this.workers];
+    for (int w = 0; w < this.workers; w++) {
+      threads[w] = new Thread(() -> {
+        try {
+          this.work(next, count, seed, free, done);
+        }
+        catch (InterruptedException e) {
+          // Stopped because the run failed or was cancelled
+        }
+        catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      }, "puzzle-factory-" + w);
+      threads[w].setDaemon(true);
+      threads[w].start();
+    }
+
+    try {
+      for (long received = 0; received < count; received++) {
+        PuzzleSlot slot = done.poll(100, TimeUnit.MILLISECONDS);
+        while (slot == null) {
+          if (failure.get() != null) {
+            throw new IllegalStateException("Puzzle worker failed", failure.get());
+          }
+          slot = done.poll(100, TimeUnit.MILLISECONDS);
+        }
+        long sinkStart = System.nanoTime();
+        sink.accept(slot.index, slot.buffer);
+        this.sinkNanos += System.nanoTime() - sinkStart;
+        this.boardsMade.incrementAndGet();
+        free.put(slot);
+      }
+    }
+    finally {
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      this.nanosSpent += System.nanoTime() - start;
+    }
+  }
+
+  // Purpose: Claims and makes boards until the given count has been claimed
+  void work(AtomicLong next, long count, long seed, BlockingQueue<PuzzleSlot> free,
+    BlockingQueue<PuzzleSlot> done) throws InterruptedException {
+    LightEmAll game = null;
+    long busy = 0;
+    long stalled = 0;
+    try {
+      for (long i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+        long waitStart = System.nanoTime();
+        PuzzleSlot slot = free.take();
+        long makeStart = System.nanoTime();
+        stalled += makeStart - waitStart;
+
+        long boardSeed = seedFor(seed, i);
+        if (game == null) {
+          game = new LightEmAll(this.width, this.height, this.layout, boardSeed);
+        }
+        else {
+          game.generate(boardSeed);
+        }
+        for (int tries = 1; tries < MAX_SCRAMBLES && game.allPowered(); tries++) {
+          game.scrambleBoard(seedFor(boardSeed, tries));
+          game.updatePower();
+          this.rescrambles.incrementAndGet();
+        }
+
+        slot.index = i;
+        slot.buffer.clear();
+        BoardCodec.encode(game, slot.buffer);
+        slot.buffer.flip();
+        busy += System.nanoTime() - makeStart;
+        done.put(slot);
+      }
+    }
+    finally {
+      this.workerNanos.addAndGet(busy);
+      this.stallNanos.addAndGet(stalled);
+    }
+  }
+
+  // Purpose: Derives the seed of one board from the seed of a whole run
+  static long seedFor(long seed, long i) {
+    return seed + (i + 1) * 0x9E3779B97F4A7C15L;
+  }
+
+  // Purpose: Returns the average number of boards made per second so far
+  double boardsPerSecond() {
+    return this.nanosSpent == 0 ? 0 : this.boardsMade.get() * 1e9 / this.nanosSpent;
+  }
+
+  // Makes boards at several sizes and prints throughput against a target for each, optionally
+  // writing the boards of every size to a pack file.
+  // Usage: java PuzzleFactory [count] [workers] [manual|fractal|random] [packPrefix]
+  public static void main(String[] args) throws IOException, InterruptedException {
+    long count = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+    int workers = args.length > 1 ? Integer.parseInt(args[1])
+      : Runtime.getRuntime().availableProcessors();
+    int layout = args.length > 2 ? LightEmAll.layoutNamed(args[2]) : LightEmAll.FRACTAL;
+    String packPrefix = args.length > 3 ? args[3] : null;
+
+    // Boards per second expected from each worker; the target scales with the worker count
+    int[] sizes = {16, 64, 256};
+    double[] targetPerWorker = {10000, 1500, 100};
+
+    System.out.printf("%6s %8s %12s %12s %10s %10s %10s %s%n", "size", "boards", "boards/s",
+      "target", "busy ms", "stall ms", "sink ms", "rescrambles");
+    for (int s = 0; s < sizes.length; s++) {
+      int size = sizes[s];
+      long boards = Math.max(1, (long) (count * 16.0 / size));
+
+      // A short run first, so the measured one is not paying for compilation
+      new PuzzleFactory(size, size, layout, workers, 4 * workers)
+        .produce(boards / 4 + 1, -size, (index, board) -> { });
+
+      PuzzleFactory factory = new PuzzleFactory(size, size, layout, workers, 4 * workers);
+      double target = targetPerWorker[s] * workers;
+      if (packPrefix != null) {
+        Path file = Paths.get(packPrefix + "-" + size + ".pack");
+        try (BoardPackSink sink = new BoardPackSink(file, (int) boards, size, size)) {
+          factory.produce(boards, size, sink);
+        }
+      }
+      else {
+        factory.produce(boards, size, (index, board) -> { });
+      }
+      System.out.printf("%6d %8d %12.0f %12.0f %10d %10d %10d %d%s%n", size, boards,
+        factory.boardsPerSecond(), target, factory.workerNanos.get() / 1_000_000,
+        factory.stallNanos.get() / 1_000_000, factory.sinkNanos / 1_000_000,
+        factory.rescrambles.get(), factory.boardsPerSecond() >= target ? "" : "  below target");
+    }
+  }
+}
+
+// A reusable buffer holding one encoded board on its way from a worker to the sink
+class PuzzleSlot {
+  ByteBuffer buffer; // the encoded board
+  long index; // number of the board in its run
+
+  PuzzleSlot(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+}
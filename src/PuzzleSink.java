@@ -0,0 +1,9 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Receives the boards made by a PuzzleFactory, one at a time on the thread that runs it
+interface PuzzleSink {
+  // Purpose: Takes the board with the given number, encoded in the BoardCodec format between
+  // the buffer's position and limit. The buffer is reused as soon as this returns
+  void accept(long index, ByteBuffer board) throws IOException;
+}
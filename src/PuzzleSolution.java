@@ -0,0 +1,22 @@
+// The rotation of every tile, and where the power station should stand, that solve a board
+class PuzzleSolution {
+  int[] rotations; // clockwise quarter turns for each tile, indexed row * width + col
+  int stationCol; // column the power station should be moved to
+  int stationRow; // row the power station should be moved to
+
+  PuzzleSolution(int[] rotations, int stationCol, int stationRow) {
+    this.rotations = rotations;
+    this.stationCol = stationCol;
+    this.stationRow = stationRow;
+  }
+
+  // Purpose: Applies this solution to the given game and recomputes its power
+  void applyTo(LightEmAll game) {
+    for (int i = 0; i < this.rotations.length; i++) {
+      game.wires.rotate(i, this.rotations[i]);
+    }
+    game.movePowerStation(this.stationCol, this.stationRow);
+    game.scene = null;
+    game.updatePower();
+  }
+}
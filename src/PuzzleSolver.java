@@ -0,0 +1,695 @@
+import java.util.Arrays;
+
+// Solves scrambled LightEmAll boards without a display. Every tile keeps a domain of the
+// rotations it may still take, as a 4-bit set, with rotations that look identical removed.
+// Constraint propagation enforces the border (no wire may point off the board) and every edge
+// (two neighbors either both have a wire toward each other or neither does). Tiles whose link
+// is already certain are grouped with a union-find that can be rolled back, so a link that
+// would seal off a group smaller than the board is ruled out as soon as it would form. When the
+// wire ends add up to exactly two per link of a spanning tree every solution is a tree, and a
+// link that would close a loop is ruled out the same way; other boards may keep their loops.
+// The tiles propagation leaves open are guessed one at a time, each next to the last guess,
+// and a search that keeps failing starts over with the tiles that failed most guessed first.
+// A random tree usually has many wirings that connect every tile, and the first one found can
+// be too long for the station's radius. Then each tile a guess fixed on its longest path is
+// forced to another rotation in turn, keeping every other tile where it was when it can, and
+// any shorter wiring becomes the one to improve on. This repair is not exhaustive: a tree whose
+// longest path can no longer be shortened one tile at a time is reported as unsolved.
+class PuzzleSolver {
+  static final int RESTART_FAILURES = 64; // failed guesses before the first restart
+  static final int ATTEMPT_FAILURES = 64; // failed guesses allowed while changing one guess
+  static final int NEAR_RINGS = 12; // rings around the last guess searched for the next one
+
+  int width; // columns of the board being solved
+  int height; // rows of the board being solved
+  int[] base; // wire mask of each tile before any rotation
+  int[] domain; // set of rotations each tile may still take, bit k for k clockwise turns
+  int[] anyWire; // directions in which some remaining rotation of each tile has a wire
+  int[] allWires; // directions in which every remaining rotation of each tile has a wire
+  int[] queue; // circular queue of tiles whose neighbors' domains changed
+  boolean[] queued; // whether each tile is currently in queue
+  int head; // next entry of queue to revise
+  int tail; // end of the entries in queue
+  int[] trailTile; // tiles whose domains were narrowed, so a failed guess can be undone
+  int[] trailDomain; // the domain each of those tiles had before it was narrowed
+  int trailSize; // number of entries on the trail
+  int[] group; // union-find parent of each tile over certain links
+  int[] groupSize; // number of tiles in each group, valid at its root
+  int[] groupEnds; // wire ends in each group not yet linked to a neighbor, valid at its root
+  int[] joinTrail; // roots attached by each union, or ~root for a loop, so unions can be undone
+  int joinCount; // number of entries on joinTrail
+  boolean failed; // set when a certain link seals off a group or closes a loop on a tree board
+  boolean tree; // whether every solution must be a tree, so no link may close a loop
+  int[] fixedAt; // search level at which each tile was left with one rotation, 0 before guessing
+  int level; // search level of the guess being propagated
+  int lastGuess; // tile guessed most recently, near which the next guess is looked for
+  int[] weight; // number of failed guesses on each tile in the current solve
+  int[] hot; // tiles with at least one failed guess, in the order they first failed
+  int hotCount; // number of entries in hot
+  int[] phase; // rotation of each tile in the best wiring found so far, or -1 before one
+  int[] path; // tiles along the longest path of the last wiring verify found too long
+  int pathLength; // number of entries in path
+  int longest; // steps along that path
+  long[] retry; // path tiles left to change, each as its fixing level, the tile and a rotation
+  int retryCount; // number of entries in retry, taken from the end
+  PackedBoard check; // scratch board used to verify a finished assignment
+  BfsEngine bfs; // search buffers for verification
+
+  long boardsSolved; // number of boards solved so far
+  long nanosSpent; // total time spent in solve
+  long guesses; // number of backtracking decisions made so far
+  long restarts; // number of times a search started over from its first guess
+  long repairs; // number of rotations changed on a longest path that gave a better wiring
+
+  // Purpose: Finds the rotation of every tile, and a station position, that light the whole
+  // board, or returns null if no assignment does
+  PuzzleSolution solve(LightEmAll game) {
+    long start = System.nanoTime();
+    this.prepare(game);
+    PuzzleSolution solution = null;
+    if (this.propagate()) {
+      solution = this.search(game);
+    }
+    this.nanosSpent += System.nanoTime() - start;
+    if (solution != null) {
+      this.boardsSolved++;
+    }
+    return solution;
+  }
+
+  // Purpose: Returns how many boards per second this solver has solved so far
+  double boardsPerSecond() {
+    return this.nanosSpent == 0 ? 0 : this.boardsSolved * 1e9 / this.nanosSpent;
+  }
+
+  // Purpose: Loads the board into the solver's buffers, reusing them when the size matches
+  void prepare(LightEmAll game) {
+    int size = game.width * game.height;
+    if (this.base == null || this.base.length != size) {
+      this.base = new int[size];
+      this.domain = new int[size];
+      this.anyWire = new int[size];
+      this.allWires = new int[size];
+      this.queue = new int[size + 1];
+      this.queued = new boolean[size];
+      this.trailTile = new int[size];
+      this.trailDomain = new int[size];
+      this.group = new int[size];
+      this.groupSize = new int[size];
+      this.groupEnds = new int[size];
+      this.joinTrail = new int[2 * size];
+      this.fixedAt = new int[size];
+      this.weight = new int[size];
+      this.hot = new int[size];
+      this.phase = new int[size];
+      this.path = new int[size];
+      this.bfs = new BfsEngine(size);
+    }
+    if (this.check == null || this.check.width != game.width
+      || this.check.height != game.height) {
+      this.check = new PackedBoard(game.width, game.height);
+    }
+    this.width = game.width;
+    this.height = game.height;
+    this.head = 0;
+    this.tail = 0;
+    this.trailSize = 0;
+    this.joinCount = 0;
+    this.failed = false;
+    this.level = 0;
+    this.hotCount = 0;
+    this.lastGuess = game.indexOf(game.powerCol, game.powerRow);
+    Arrays.fill(this.weight, 0);
+    Arrays.fill(this.phase, -1);
+
+    // A connected wiring has at least one link fewer than tiles, and exactly that many only
+    // if it is a tree
+    long ends = 0;
+    for (int i = 0; i < size; i++) {
+      ends += Integer.bitCount(game.wires.mask(i));
+    }
+    this.tree = ends == 2L * (size - 1);
+
+    for (int i = 0; i < size; i++) {
+      int mask = game.wires.mask(i);
+      this.base[i] = mask;
+      this.group[i] = i;
+      this.groupSize[i] = 1;
+      this.groupEnds[i] = Integer.bitCount(mask);
+      this.fixedAt[i] = 0;
+
+      // Rotations that produce the same wires as a smaller rotation are redundant
+      int rotations = 0;
+      for (int k = 0; k < 4; k++) {
+        int rotated = PackedBoard.rotateMask(mask, k);
+        boolean repeat = false;
+        for (int j = 0; j < k; j++) {
+          repeat = repeat || PackedBoard.rotateMask(mask, j) == rotated;
+        }
+        if (!repeat) {
+          rotations |= 1 << k;
+        }
+      }
+      this.setDomain(i, rotations);
+      this.queued[i] = true;
+      this.queue[this.tail++] = i;
+    }
+
+    // Tiles that look the same in every rotation are linked before anything is narrowed
+    for (int i = 0; i < size; i++) {
+      int col = i % this.width;
+      int row = i / this.width;
+      for (int d = PackedBoard.RIGHT; d <= PackedBoard.BOTTOM; d++) {
+        int n = this.neighbor(i, col, row, d);
+        if (n >= 0 && (this.allWires[i] & (1 << d)) != 0
+          && (this.allWires[n] & (1 << (d - 2))) != 0) {
+          this.join(i, n);
+        }
+      }
+    }
+  }
+
+  // Purpose: Narrows domains until every remaining rotation agrees with the border and with
+  // some rotation of each neighbor, returning false if a tile runs out of rotations
+  boolean propagate() {
+    while (this.head != this.tail && !this.failed) {
+      int i = this.queue[this.head];
+      this.head = (this.head + 1) % this.queue.length;
+      this.queued[i] = false;
+
+      int narrowed = this.revise(i);
+      if (narrowed == this.domain[i]) {
+        continue;
+      }
+      if (narrowed == 0) {
+        return false;
+      }
+      this.narrow(i, narrowed);
+    }
+    return !this.failed;
+  }
+
+  // Purpose: Computes the rotations of tile i that every neighbor can still agree with
+  int revise(int i) {
+    int col = i % this.width;
+    int row = i / this.width;
+    int root = this.find(i);
+
+    // Bit d of canHave is set when a wire toward direction d could be matched,
+    // and bit d of canLack when having no wire there could be matched
+    int canHave = 0;
+    int canLack = 0;
+    for (int d = 0; d < 4; d++) {
+      int n = this.neighbor(i, col, row, d);
+      if (n < 0) {
+        canLack |= 1 << d;
+        continue;
+      }
+      int opposite = 1 << ((d + 2) & 3);
+      if ((this.allWires[n] & opposite) == 0) {
+        canLack |= 1 << d;
+      }
+
+      // A new link may not close a loop on a tree board or leave a group with no loose ends
+      if ((this.anyWire[n] & opposite) != 0) {
+        boolean certain = (this.allWires[i] & (1 << d)) != 0
+          && (this.allWires[n] & opposite) != 0;
+        if (certain || this.canJoin(root, this.find(n))) {
+          canHave |= 1 << d;
+        }
+      }
+    }
+
+    int result = 0;
+    int options = this.domain[i];
+    while (options != 0) {
+      int k = Integer.numberOfTrailingZeros(options);
+      options &= options - 1;
+      int mask = PackedBoard.rotateMask(this.base[i], k);
+      if ((mask & ~canHave) == 0 && (~mask & 0xF & ~canLack) == 0) {
+        result |= 1 << k;
+      }
+    }
+    return result;
+  }
+
+  // Purpose: Replaces the domain of tile i, recording the old one and queueing its neighbors
+  void narrow(int i, int narrowed) {
+    if (this.trailSize == this.trailTile.length) {
+      this.trailTile = Arrays.copyOf(this.trailTile, this.trailSize * 2);
+      this.trailDomain = Arrays.copyOf(this.trailDomain, this.trailSize * 2);
+    }
+    this.trailTile[this.trailSize] = i;
+    this.trailDomain[this.trailSize] = this.domain[i];
+    this.trailSize++;
+    int certainBefore = this.allWires[i];
+    this.setDomain(i, narrowed);
+    if ((narrowed & (narrowed - 1)) == 0) {
+      this.fixedAt[i] = this.level;
+    }
+    int certainNow = this.allWires[i];
+
+    int col = i % this.width;
+    int row = i / this.width;
+    for (int d = 0; d < 4; d++) {
+      int n = this.neighbor(i, col, row, d);
+
+      // A link becomes certain once both sides have the facing wire in every rotation
+      if (n >= 0 && (certainNow & ~certainBefore & (1 << d)) != 0
+        && (this.allWires[n] & (1 << ((d + 2) & 3))) != 0) {
+        this.join(i, n);
+      }
+      if (n >= 0 && !this.queued[n]) {
+        this.queued[n] = true;
+        this.queue[this.tail] = n;
+        this.tail = (this.tail + 1) % this.queue.length;
+      }
+    }
+  }
+
+  // Purpose: Replaces the domain of tile i and the wire summaries derived from it
+  void setDomain(int i, int rotations) {
+    int any = 0;
+    int all = 0xF;
+    int options = rotations;
+    while (options != 0) {
+      int k = Integer.numberOfTrailingZeros(options);
+      options &= options - 1;
+      int mask = PackedBoard.rotateMask(this.base[i], k);
+      any |= mask;
+      all &= mask;
+    }
+    this.domain[i] = rotations;
+    this.anyWire[i] = any;
+    this.allWires[i] = all;
+  }
+
+  // Purpose: Finds the root of the group containing tile i
+  int find(int i) {
+    while (this.group[i] != i) {
+      i = this.group[i];
+    }
+    return i;
+  }
+
+  // Purpose: Checks whether one more link between the groups with the given roots leaves
+  // some loose end, unless the result covers the whole board, and on a tree board whether it
+  // also keeps the wiring loop-free
+  boolean canJoin(int a, int b) {
+    if (a == b) {
+      return !this.tree && (this.groupEnds[a] > 2 || this.groupSize[a] == this.base.length);
+    }
+    return this.groupEnds[a] + this.groupEnds[b] > 2
+      || this.groupSize[a] + this.groupSize[b] == this.base.length;
+  }
+
+  // Purpose: Merges the groups of two tiles that just became certainly linked, flagging a
+  // failure if the link seals off part of the board or closes a loop on a tree board
+  void join(int i, int n) {
+    int a = this.find(i);
+    int b = this.find(n);
+    if (!this.canJoin(a, b)) {
+      this.failed = true;
+      return;
+    }
+    if (a == b) {
+      this.groupEnds[a] -= 2;
+      this.joinTrail[this.joinCount++] = ~a;
+      return;
+    }
+    if (this.groupSize[a] < this.groupSize[b]) {
+      int swap = a;
+      a = b;
+      b = swap;
+    }
+    this.group[b] = a;
+    this.groupSize[a] += this.groupSize[b];
+    this.groupEnds[a] += this.groupEnds[b] - 2;
+    this.joinTrail[this.joinCount++] = b;
+  }
+
+  // Purpose: Restores every domain narrowed and every group merged since the trail and the
+  // join trail had the given sizes
+  void undo(int mark, int joinMark) {
+    while (this.trailSize > mark) {
+      this.trailSize--;
+      this.setDomain(this.trailTile[this.trailSize], this.trailDomain[this.trailSize]);
+    }
+    while (this.joinCount > joinMark) {
+      int b = this.joinTrail[--this.joinCount];
+      if (b < 0) {
+        this.groupEnds[~b] += 2;
+        continue;
+      }
+      int a = this.group[b];
+      this.group[b] = b;
+      this.groupSize[a] -= this.groupSize[b];
+      this.groupEnds[a] -= this.groupEnds[b] - 2;
+    }
+    this.failed = false;
+    while (this.head != this.tail) {
+      this.queued[this.queue[this.head]] = false;
+      this.head = (this.head + 1) % this.queue.length;
+    }
+  }
+
+  // Purpose: Returns the neighbor of tile i in direction d, or -1 off the board
+  int neighbor(int i, int col, int row, int d) {
+    if (d == PackedBoard.LEFT) {
+      return col > 0 ? i - 1 : -1;
+    }
+    else if (d == PackedBoard.TOP) {
+      return row > 0 ? i - this.width : -1;
+    }
+    else if (d == PackedBoard.RIGHT) {
+      return col < this.width - 1 ? i + 1 : -1;
+    }
+    else {
+      return row < this.height - 1 ? i + this.width : -1;
+    }
+  }
+
+  // Purpose: Assigns the tiles propagation left open, one guess at a time, undoing guesses
+  // that lead to a contradiction. A search that keeps failing starts over, and a finished
+  // tree whose longest path is too long is repaired by turning the tiles along that path
+  PuzzleSolution search(LightEmAll game) {
+    int size = this.base.length;
+    int[] open = new int[size];
+    int openCount = 0;
+    for (int i = 0; i < size; i++) {
+      if (Integer.bitCount(this.domain[i]) > 1) {
+        open[openCount++] = i;
+      }
+    }
+
+    // Each level of the explicit stack remembers its tile, the rotations it could take, the
+    // ones not tried yet in the order to try them, and the trail sizes to return to first
+    int[] stackTile = new int[openCount + 1];
+    int[] stackOptions = new int[openCount + 1];
+    int[] stackLeft = new int[openCount + 1];
+    int[] stackMark = new int[openCount + 1];
+    int[] stackJoins = new int[openCount + 1];
+    int rootMark = this.trailSize;
+    int rootJoins = this.joinCount;
+    int depth = 0;
+    int floor = 0; // levels at or below floor belong to the best wiring and stay put
+    int failures = 0; // failed guesses since the last restart or changed guess
+    int budget = RESTART_FAILURES;
+    int bestLongest = Integer.MAX_VALUE; // steps along the longest path of the best wiring
+    int bestEnds = 0; // tiles at either end of a longest path in the best wiring
+    boolean repairing = false;
+    boolean consistent = true;
+    while (true) {
+      if (consistent) {
+        int pick = this.pickGuess(open, openCount);
+        if (pick >= 0) {
+          stackTile[depth] = pick;
+          stackOptions[depth] = this.domain[pick];
+          stackLeft[depth] = this.order(pick);
+          stackMark[depth] = this.trailSize;
+          stackJoins[depth] = this.joinCount;
+          depth++;
+        }
+        else {
+          PuzzleSolution solution = this.verify(game);
+          if (solution != null) {
+            return solution;
+          }
+          if (this.tree && this.longest != Integer.MAX_VALUE
+            && (!repairing || this.longest <= bestLongest)) {
+            // Keep this wiring if its longest path is shorter than the best one so far, or as
+            // long with fewer tiles at its ends, then change the next guess along that path
+            int ends = this.longestEnds();
+            if (!repairing || this.longest < bestLongest || ends < bestEnds) {
+              if (repairing) {
+                this.repairs++;
+              }
+              repairing = true;
+              bestLongest = this.longest;
+              bestEnds = ends;
+              this.keepBest();
+            }
+          }
+          if (repairing) {
+            depth = this.nextRetry(stackTile, stackOptions, stackLeft, stackMark, stackJoins);
+            if (depth == 0) {
+              return null;
+            }
+            floor = depth - 1;
+            failures = 0;
+          }
+          else {
+            consistent = false;
+          }
+        }
+      }
+
+      if (!consistent) {
+        failures++;
+        if (!repairing && depth > 0 && this.weight[stackTile[depth - 1]]++ == 0) {
+          this.hot[this.hotCount++] = stackTile[depth - 1];
+        }
+        if (repairing && failures > ATTEMPT_FAILURES) {
+          depth = floor;
+        }
+        else if (!repairing && failures > budget) {
+          // Start over, guessing the tiles that failed most first
+          this.restarts++;
+          budget *= 2;
+          failures = 0;
+          depth = 0;
+          this.undo(rootMark, rootJoins);
+          consistent = true;
+          continue;
+        }
+      }
+
+      // Try the next untried rotation of the deepest guess that still has one
+      while (depth > floor && stackLeft[depth - 1] == 0) {
+        depth--;
+      }
+      if (depth == floor) {
+        if (!repairing) {
+          return null;
+        }
+        depth = this.nextRetry(stackTile, stackOptions, stackLeft, stackMark, stackJoins);
+        if (depth == 0) {
+          return null;
+        }
+        floor = depth - 1;
+        failures = 0;
+      }
+      int tile = stackTile[depth - 1];
+      int k = (stackLeft[depth - 1] & 7) - 1;
+      stackLeft[depth - 1] >>>= 3;
+      this.undo(stackMark[depth - 1], stackJoins[depth - 1]);
+      this.guesses++;
+      this.level = depth;
+      this.lastGuess = tile;
+      this.narrow(tile, 1 << k);
+      consistent = this.propagate();
+    }
+  }
+
+  // Purpose: Returns the open tile to guess next: the one that failed most so far, else the
+  // one with the fewest rotations closest to the last guess, or -1 if every tile is fixed
+  int pickGuess(int[] open, int openCount) {
+    int pick = this.pickHot();
+    if (pick < 0) {
+      pick = this.pickNear(NEAR_RINGS);
+    }
+    if (pick < 0) {
+      pick = this.pickOpen(open, openCount);
+    }
+    return pick;
+  }
+
+  // Purpose: Returns the open tile with the most failed guesses, or -1 if none is open
+  int pickHot() {
+    int best = -1;
+    for (int h = 0; h < this.hotCount; h++) {
+      int t = this.hot[h];
+      if ((this.domain[t] & (this.domain[t] - 1)) != 0
+        && (best < 0 || this.weight[t] > this.weight[best])) {
+        best = t;
+      }
+    }
+    return best;
+  }
+
+  // Purpose: Returns the open tile with the fewest rotations in the nearest square ring around
+  // the last guess that has one, looking at most the given number of rings out, or -1
+  int pickNear(int rings) {
+    int col = this.lastGuess % this.width;
+    int row = this.lastGuess / this.width;
+    for (int r = 1; r <= rings; r++) {
+      int best = -1;
+      int bestCount = 5;
+      for (int y = Math.max(row - r, 0); y <= Math.min(row + r, this.height - 1); y++) {
+        // Rows inside the ring only have its two side columns
+        int step = y == row - r || y == row + r ? 1 : 2 * r;
+        for (int x = col - r; x <= col + r; x += step) {
+          if (x < 0 || x >= this.width) {
+            continue;
+          }
+          int count = Integer.bitCount(this.domain[y * this.width + x]);
+          if (count > 1 && count < bestCount) {
+            best = y * this.width + x;
+            bestCount = count;
+          }
+        }
+      }
+      if (best >= 0) {
+        return best;
+      }
+    }
+    return -1;
+  }
+
+  // Purpose: Returns the open tile with the fewest remaining rotations, or -1 if all are fixed
+  int pickOpen(int[] open, int openCount) {
+    int best = -1;
+    int bestCount = 5;
+    for (int i = 0; i < openCount; i++) {
+      int count = Integer.bitCount(this.domain[open[i]]);
+      if (count > 1 && count < bestCount) {
+        best = open[i];
+        bestCount = count;
+      }
+    }
+    return best;
+  }
+
+  // Purpose: Packs the remaining rotations of a tile in the order to try them, three bits each
+  // holding one more than the rotation: its rotation in the best wiring first, then the rest
+  // from fewest turns
+  int order(int tile) {
+    int options = this.domain[tile];
+    int packed = 0;
+    int shift = 0;
+    int first = this.phase[tile];
+    if (first >= 0 && (options & (1 << first)) != 0) {
+      packed = first + 1;
+      shift = 3;
+      options &= ~(1 << first);
+    }
+    while (options != 0) {
+      int k = Integer.numberOfTrailingZeros(options);
+      options &= options - 1;
+      packed |= (k + 1) << shift;
+      shift += 3;
+    }
+    return packed;
+  }
+
+  // Purpose: Remembers the finished wiring as the best so far, and lists the other rotations
+  // of every tile on its longest path that a guess fixed, with the level of that guess
+  void keepBest() {
+    for (int i = 0; i < this.base.length; i++) {
+      this.phase[i] = Integer.numberOfTrailingZeros(this.domain[i]);
+    }
+    this.retry = new long[3 * this.pathLength];
+    this.retryCount = 0;
+    for (int p = 0; p < this.pathLength; p++) {
+      int tile = this.path[p];
+      for (int k = 0; k < 4 && this.fixedAt[tile] > 0; k++) {
+        if (k != this.phase[tile]) {
+          this.retry[this.retryCount++] = (long) this.fixedAt[tile] << 32 | tile << 2 | k;
+        }
+      }
+    }
+    Arrays.sort(this.retry, 0, this.retryCount);
+  }
+
+  // Purpose: Returns the search to the best wiring just before the guess that fixed the next
+  // path tile to change, and replaces that guess with the tile's new rotation, returning its
+  // level or 0 if no change is left to try
+  int nextRetry(int[] stackTile, int[] stackOptions, int[] stackLeft, int[] stackMark,
+    int[] stackJoins) {
+    while (this.retryCount > 0) {
+      long entry = this.retry[--this.retryCount];
+      int level = (int) (entry >>> 32);
+      int tile = (int) entry >>> 2;
+      int k = (int) entry & 3;
+      this.undo(stackMark[level - 1], stackJoins[level - 1]);
+      if ((this.domain[tile] & (1 << k)) != 0) {
+        stackTile[level - 1] = tile;
+        stackOptions[level - 1] = this.domain[tile];
+        stackLeft[level - 1] = k + 1;
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  // Purpose: Checks whether the fully assigned rotations light the whole board, moving the
+  // station to the center of the wiring if its current spot is too far from some tile. When
+  // even the center is too far, the longest path is left in path for the search to shorten
+  PuzzleSolution verify(LightEmAll game) {
+    int size = this.base.length;
+    int[] rotations = new int[size];
+    for (int i = 0; i < size; i++) {
+      rotations[i] = Integer.numberOfTrailingZeros(this.domain[i]);
+      this.check.setMask(i, PackedBoard.rotateMask(this.base[i], rotations[i]));
+    }
+
+    int station = game.indexOf(game.powerCol, game.powerRow);
+    this.longest = Integer.MAX_VALUE;
+    if (this.bfs.search(this.check, station, Integer.MAX_VALUE) < size) {
+      return null;
+    }
+    if (this.bfs.search(this.check, station, game.radius) < size) {
+      // Walk half way back along a longest path; no tile is farther than that from its middle
+      int a = this.bfs.queue[size - 1];
+      this.bfs.search(this.check, a, Integer.MAX_VALUE);
+      int b = this.bfs.queue[size - 1];
+      this.longest = this.bfs.dist[b];
+      this.pathLength = 0;
+      for (int t = b; t != a; t = this.bfs.parent[t]) {
+        this.path[this.pathLength++] = t;
+      }
+      this.path[this.pathLength++] = a;
+      station = this.path[this.longest / 2];
+      if (this.bfs.search(this.check, station, game.radius) < size) {
+        return null;
+      }
+    }
+    return new PuzzleSolution(rotations, station % game.width, station / game.width);
+  }
+
+  // Purpose: Counts the tiles as far from either end of the longest path verify left in path
+  // as the other end is, the ends of every longest path in a tree
+  int longestEnds() {
+    int size = this.base.length;
+    int count = 0;
+    for (int end = 0; end < 2; end++) {
+      this.bfs.search(this.check, end == 0 ? this.path[0] : this.path[this.pathLength - 1],
+        Integer.MAX_VALUE);
+      for (int q = size - 1; q >= 0 && this.bfs.dist[this.bfs.queue[q]] == this.longest; q--) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // Solves freshly generated boards and prints the throughput. Random trees guess, so they
+  // take up to a few seconds each at 500x500 and can take a minute at 1000x1000.
+  // Usage: java PuzzleSolver [count] [size] [manual|fractal|random]
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int layout = args.length > 2 ? LightEmAll.layoutNamed(args[2]) : LightEmAll.FRACTAL;
+
+    PuzzleSolver solver = new PuzzleSolver();
+    int failed = 0;
+    for (int i = 0; i < count; i++) {
+      LightEmAll game = new LightEmAll(size, size, layout);
+      if (solver.solve(game) == null) {
+        failed++;
+      }
+    }
+    System.out.printf("%d boards of %dx%d (%s): %.1f boards/sec, %d guesses, %d restarts, "
+      + "%d repairs, %d unsolved%n", count, size, size, LightEmAll.LAYOUT_NAMES[layout],
+      solver.boardsPerSecond(), solver.guesses, solver.restarts, solver.repairs, failed);
+  }
+}
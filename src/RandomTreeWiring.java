@@ -0,0 +1,77 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Wires a board as a random spanning tree: every edge of the grid gets a random weight and
+// Kruskal's algorithm keeps the lightest edges that join two separate pieces. Only the order
+// of the weights matters, so instead of sorting, the edges are shuffled and then tried in
+// order until the tree spans the board. An edge is a plain int, 2 * i for the link from tile
+// i to its right and 2 * i + 1 for the link below it. The tree is built in a private array of
+// masks and copied to the board in one sequential pass, since the kept edges land all over
+// it, and every buffer is kept for the next board of the same size.
+class RandomTreeWiring {
+  int[] edges; // edges of the grid, in the order they are tried
+  UnionFind sets; // tiles grouped by the tree edges kept so far
+  byte[] masks; // wire mask of every tile of the tree being built
+
+  // Creates buffers for boards of the same size as the given one
+  RandomTreeWiring(PackedBoard wires) {
+    this.edges = new int[2 * wires.size()];
+    this.sets = new UnionFind(wires.size());
+    this.masks = new byte[wires.size()];
+  }
+
+  // Purpose: Replaces the wiring of the given board with a spanning tree chosen by the seed
+  void wire(PackedBoard wires, long seed) {
+    int[] edges = this.edges;
+    UnionFind sets = this.sets;
+    byte[] masks = this.masks;
+    Arrays.fill(masks, (byte) 0);
+    sets.reset();
+
+    // List the edges in a fixed order, so the tree depends on nothing but the seed. The last
+    // column has no edge to its right and the last row none below
+    int width = wires.width;
+    int height = wires.height;
+    int count = 0;
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        int i = row * width + col;
+        if (col < width - 1) {
+          edges[count++] = 2 * i;
+        }
+        if (row < height - 1) {
+          edges[count++] = 2 * i + 1;
+        }
+      }
+    }
+
+    // Shuffle them all first, so the union-find pass below reads them in order
+    SplittableRandom rand = new SplittableRandom(seed);
+    for (int last = count - 1; last > 0; last--) {
+      int pick = rand.nextInt(last + 1);
+      int edge = edges[pick];
+      edges[pick] = edges[last];
+      edges[last] = edge;
+    }
+
+    for (int k = 0; sets.sets > 1; k++) {
+      int edge = edges[k];
+      int tile = edge >>> 1;
+      if ((edge & 1) == 0) {
+        if (sets.union(tile, tile + 1)) {
+          masks[tile] |= 1 << PackedBoard.RIGHT;
+          masks[tile + 1] |= 1 << PackedBoard.LEFT;
+        }
+      }
+      else if (sets.union(tile, tile + width)) {
+        masks[tile] |= 1 << PackedBoard.BOTTOM;
+        masks[tile + width] |= 1 << PackedBoard.TOP;
+      }
+    }
+
+    wires.clear();
+    for (int i = 0; i < masks.length; i++) {
+      wires.setMask(i, masks[i]);
+    }
+  }
+}
@@ -0,0 +1,236 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+
+// Draws LightEmAll boards straight into ARGB pixels, without building a WorldScene. Every tile
+// appearance (wire mask, wire color and whether it holds a station) is drawn once as a sprite,
+// and a board is drawn by copying one sprite row at a time into the pixels, so it needs no
+// display and a frame costs about as much as copying its pixels. Large boards are drawn in
+// bands of tile rows in parallel, since no two bands share a pixel.
+class RasterRenderer {
+  // Number of tile rows drawn by one task when a board is drawn in parallel
+  static final int BAND_ROWS = 16;
+  // Boards with at least this many tiles are drawn in parallel bands
+  static final int PARALLEL_TILES = 1 << 14;
+  // Wire colors by color slot: slot 0 for unpowered tiles, slot 1 + k for station number k
+  static final Color[] WIRE_COLORS = wireColors();
+
+  int tileSize; // width and height of each tile in pixels
+  int wireWidth; // thickness of each wire in pixels
+  int[][] sprites; // pixels of each tile, indexed by (slot * 16 + mask) * 2 + station
+
+  // Creates a renderer for tiles of the given size and wire width, drawing every sprite
+  RasterRenderer(int tileSize, int wireWidth) {
+    if (tileSize <= 0 || wireWidth <= 0 || wireWidth > tileSize) {
+      throw new IllegalArgumentException("Unsupported tile size " + tileSize + " with wires "
+        + wireWidth + " wide");
+    }
+    this.tileSize = tileSize;
+    this.wireWidth = wireWidth;
+    this.sprites = new int[WIRE_COLORS.length * 32][];
+    for (int slot = 0; slot < WIRE_COLORS.length; slot++) {
+      for (int mask = 0; mask < 16; mask++) {
+        for (int station = 0; station < 2; station++) {
+          this.sprites[(slot * 16 + mask) * 2 + station] =
+            drawSprite(mask, tileSize, wireWidth, WIRE_COLORS[slot], station == 1);
+        }
+      }
+    }
+  }
+
+  // Purpose: Lists the wire colors of the color slots, unpowered first
+  static Color[] wireColors() {
+    Color[] colors = new Color[LightEmAll.STATION_COLORS.length + 1];
+    colors[0] = Color.GRAY;
+    System.arraycopy(LightEmAll.STATION_COLORS, 0, colors, 1,
+      LightEmAll.STATION_COLORS.length);
+    return colors;
+  }
+
+  // Purpose: Draws the pixels of one tile, laid out like GamePiece.drawTile
+  static int[] drawSprite(int mask, int size, int wireWidth, Color wireColor,
+    boolean hasPowerStation) {
+    BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.DARK_GRAY);
+    g.fillRect(0, 0, size, size);
+
+    // Each wire runs from the middle of the tile to one of its sides
+    g.setColor(wireColor);
+    int across = (size - wireWidth) / 2;
+    int half = size / 2;
+    if ((mask & (1 << PackedBoard.LEFT)) != 0) {
+      g.fillRect(0, across, half, wireWidth);
+    }
+    if ((mask & (1 << PackedBoard.RIGHT)) != 0) {
+      g.fillRect(size - half, across, half, wireWidth);
+    }
+    if ((mask & (1 << PackedBoard.TOP)) != 0) {
+      g.fillRect(across, 0, wireWidth, half);
+    }
+    if ((mask & (1 << PackedBoard.BOTTOM)) != 0) {
+      g.fillRect(across, size - half, wireWidth, half);
+    }
+
+    // A seven-pointed star marks the power station
+    if (hasPowerStation) {
+      Polygon star = new Polygon();
+      double outer = size / 3.0;
+      for (int p = 0; p < 14; p++) {
+        double r = p % 2 == 0 ? outer : outer / 2;
+        double angle = Math.PI * p / 7 - Math.PI / 2;
+        star.addPoint((int) Math.round(size / 2.0 + r * Math.cos(angle)),
+          (int) Math.round(size / 2.0 + r * Math.sin(angle)));
+      }
+      g.setColor(Color.CYAN);
+      g.fillPolygon(star);
+    }
+    g.dispose();
+    return image.getRGB(0, 0, size, size, null, 0, size);
+  }
+
+  // Purpose: Computes how many pixels a drawing of the given game takes
+  int pixelCount(LightEmAll game) {
+    long pixels = (long) game.width * this.tileSize * game.height * this.tileSize;
+    if (pixels > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Board too large to draw: " + game.width + "x"
+        + game.height + " at " + this.tileSize + " pixels per tile");
+    }
+    return (int) pixels;
+  }
+
+  // Purpose: Draws the given game into the given ARGB pixels, row-major and width * tileSize
+  // pixels wide, allocating new pixels if they are null or the wrong size, and returns them
+  int[] render(LightEmAll game, int[] pixels) {
+    int count = this.pixelCount(game);
+    if (pixels == null || pixels.length != count) {
+      pixels = new int[count];
+    }
+
+    // Bring power up to date once, so the bands below only read it
+    game.refreshPower();
+    int[] target = pixels;
+    int bands = (game.height + BAND_ROWS - 1) / BAND_ROWS;
+    if (game.wires.size() >= PARALLEL_TILES && bands > 1) {
+      IntStream.range(0, bands).parallel().forEach(b ->
+        this.renderRows(game, target, b * BAND_ROWS, Math.min((b + 1) * BAND_ROWS, game.height)));
+    }
+    else {
+      this.renderRows(game, target, 0, game.height);
+    }
+    return pixels;
+  }
+
+  // Purpose: Draws the tile rows from firstRow up to but not including endRow into pixels
+  void renderRows(LightEmAll game, int[] pixels, int firstRow, int endRow) {
+    int size = this.tileSize;
+    int width = game.width;
+    int stride = width * size;
+    int[][] rowSprites = new int[width][];
+    for (int row = firstRow; row < endRow; row++) {
+      for (int col = 0; col < width; col++) {
+        rowSprites[col] = this.spriteFor(game, row * width + col);
+      }
+
+      // Copy whole pixel rows at a time, so the writes stay sequential
+      int base = row * size * stride;
+      for (int y = 0; y < size; y++) {
+        int from = y * size;
+        int to = base + y * stride;
+        for (int col = 0; col < width; col++) {
+          System.arraycopy(rowSprites[col], from, pixels, to, size);
+          to += size;
+        }
+      }
+    }
+  }
+
+  // Purpose: Returns the sprite showing the tile at the given index as it is now
+  int[] spriteFor(LightEmAll game, int index) {
+    int slot = 0;
+    if ((game.poweredBits[index >>> 6] & (1L << index)) != 0) {
+      int owner = game.extraStations == 0 ? 0 : game.powerOwner[index];
+      slot = 1 + owner % LightEmAll.STATION_COLORS.length;
+    }
+    int station = game.isStationAt(index) ? 1 : 0;
+    return this.sprites[(slot * 16 + game.wires.mask(index)) * 2 + station];
+  }
+
+  // Purpose: Draws the given game into a new image, with the win message when it is won,
+  // drawing straight into the image's own pixels
+  BufferedImage renderImage(LightEmAll game) {
+    this.pixelCount(game);
+    BufferedImage image = new BufferedImage(game.width * this.tileSize,
+      game.height * this.tileSize, BufferedImage.TYPE_INT_ARGB);
+    this.render(game, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+    if (game.allPowered()) {
+      Graphics2D g = image.createGraphics();
+      g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 30));
+      g.setColor(Color.GREEN);
+      FontMetrics metrics = g.getFontMetrics();
+      String message = "YOU WIN!";
+      g.drawString(message, (image.getWidth() - metrics.stringWidth(message)) / 2,
+        (image.getHeight() - metrics.getHeight()) / 2 + metrics.getAscent());
+      g.dispose();
+    }
+    return image;
+  }
+
+  // Purpose: Saves a drawing of the given game as a PNG file
+  void savePng(LightEmAll game, Path file) throws IOException {
+    if (!ImageIO.write(this.renderImage(game), "png", file.toFile())) {
+      throw new IOException("No PNG writer available");
+    }
+  }
+
+  // Purpose: Saves a PNG thumbnail of every board in the pack to the directory, named by the
+  // board's position in the pack, drawing several boards at once, and returns how many
+  int exportPack(BoardPack pack, Path directory) throws IOException {
+    Files.createDirectories(directory);
+    try {
+      IntStream.range(0, pack.count).parallel().forEach(i -> {
+        try {
+          this.savePng(pack.open(i), directory.resolve(String.format("board-%06d.png", i)));
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return pack.count;
+  }
+
+  // Draws every board of a pack, such as one written by PuzzleFactory, as PNG thumbnails
+  // without a display.
+  // Usage: java RasterRenderer pack outDir [tileSize] [wireWidth]
+  public static void main(String[] args) throws IOException {
+    System.setProperty("java.awt.headless", "true");
+    Path packFile = Paths.get(args[0]);
+    Path directory = Paths.get(args[1]);
+    int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+    int wireWidth = args.length > 3 ? Integer.parseInt(args[3]) : Math.max(1, tileSize / 4);
+
+    RasterRenderer renderer = new RasterRenderer(tileSize, wireWidth);
+    long start = System.nanoTime();
+    try (BoardPack pack = new BoardPack(packFile)) {
+      int count = renderer.exportPack(pack, directory);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%d thumbnails in %.2f s (%.0f boards/sec)%n", count, seconds,
+        count / seconds);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+// Replays a log written by ReplayWriter against a headless LightEmAll, without rendering. The
+// log is streamed through memory-mapped windows, so it can be far larger than the heap. By
+// default every event goes through the same path as the input handlers, keeping power up to
+// date; with deferPower set, rotations and moves only change the wiring and the station, and
+// power is recomputed at checkpoints and at the end
+class ReplayEngine implements Closeable {
+  static final long WINDOW = 1L << 26; // bytes of the log mapped at a time
+
+  FileChannel channel; // the log being replayed
+  LightEmAll game; // the game rebuilt from the log's header
+  boolean deferPower; // whether power is only recomputed at checkpoints
+  long position; // offset of the next event in the log
+  long eventsApplied; // number of events replayed so far
+  int checkpoints; // number of checkpoints reached so far
+  long nanosSpent; // time spent replaying events
+
+  // Opens the given log and rebuilds the board it starts from
+  ReplayEngine(Path file) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    MappedByteBuffer header = this.channel.size() < ReplayWriter.HEADER_BYTES ? null
+      : this.channel.map(FileChannel.MapMode.READ_ONLY, 0, ReplayWriter.HEADER_BYTES);
+    if (header == null || header.getInt() != ReplayWriter.MAGIC) {
+      this.channel.close();
+      throw new IOException("Not a replay log: " + file);
+    }
+    int version = header.get();
+    if (version != ReplayWriter.VERSION) {
+      this.channel.close();
+      throw new IOException("Unsupported replay log version " + version + ": " + file);
+    }
+    int layout = header.get();
+    if (layout < LightEmAll.MANUAL || layout > LightEmAll.RANDOM_TREE) {
+      this.channel.close();
+      throw new IOException("Unknown board layout " + layout + ": " + file);
+    }
+    header.getShort();
+    int width = header.getInt();
+    int height = header.getInt();
+    long seed = header.getLong();
+
+    try {
+      this.game = new LightEmAll(width, height, layout, seed);
+    }
+    catch (IllegalArgumentException e) {
+      this.channel.close();
+      throw new IOException("Corrupt replay log header: " + file, e);
+    }
+    this.position = ReplayWriter.HEADER_BYTES;
+  }
+
+  // Purpose: Replays every remaining event, returning how many were applied
+  long run() throws IOException {
+    return this.run(0, null);
+  }
+
+  // Purpose: Replays every remaining event, bringing power up to date and passing the game to
+  // onCheckpoint after every checkpointEvery events (never if zero) and at the end. Returns
+  // how many events were applied
+  long run(long checkpointEvery, Consumer<LightEmAll> onCheckpoint) throws IOException {
+    long start = System.nanoTime();
+    long applied = 0;
+    long end = this.channel.size();
+    while (this.position + 4 <= end) {
+      // Windows hold whole events, so an event never straddles two mappings
+      long length = Math.min(WINDOW, (end - this.position) & ~3L);
+      MappedByteBuffer events =
+        this.channel.map(FileChannel.MapMode.READ_ONLY, this.position, length);
+      while (events.hasRemaining()) {
+        this.apply(events.getInt());
+        applied++;
+        if (checkpointEvery > 0 && (this.eventsApplied % checkpointEvery) == 0) {
+          this.checkpoint(onCheckpoint);
+        }
+      }
+      this.position += length;
+    }
+    this.checkpoint(onCheckpoint);
+    this.nanosSpent += System.nanoTime() - start;
+    return applied;
+  }
+
+  // Purpose: Applies one event to the game
+  void apply(int event) throws IOException {
+    LightEmAll game = this.game;
+    int argument = event & ReplayWriter.ARGUMENT_BITS;
+    if ((event >>> 30) == ReplayWriter.ROTATE) {
+      if (argument >= game.wires.size()) {
+        throw new IOException("Event " + this.eventsApplied + " rotates a tile off the board");
+      }
+      if (this.deferPower) {
+        game.wires.rotate(argument, 1);
+        game.powerStale = true;
+      }
+      else {
+        game.rotatePiece(argument % game.width, argument / game.width);
+      }
+    }
+    else if ((event >>> 30) == ReplayWriter.MOVE) {
+      int direction = argument & 3;
+      int station = game.indexOf(game.powerCol, game.powerRow);
+      if (!game.wires.linked(station, direction)) {
+        throw new IOException("Event " + this.eventsApplied + " moves the station off its wires");
+      }
+      int next = game.wires.neighbor(station, direction);
+      game.movePowerStation(next % game.width, next / game.width);
+      if (this.deferPower) {
+        game.powerStale = true;
+      }
+      else {
+        game.afterStationStep();
+      }
+    }
+    else {
+      throw new IOException("Event " + this.eventsApplied + " has unknown kind " + (event >>> 30));
+    }
+    this.eventsApplied++;
+  }
+
+  // Purpose: Brings power up to date and reports the game's state
+  void checkpoint(Consumer<LightEmAll> onCheckpoint) {
+    // Deferred events never told the connectivity index about the changes they made
+    if (this.deferPower) {
+      this.game.updatePower();
+    }
+    else {
+      this.game.refreshPower();
+    }
+    this.checkpoints++;
+    if (onCheckpoint != null) {
+      onCheckpoint.accept(this.game);
+    }
+  }
+
+  // Purpose: Returns the average number of events replayed per second so far
+  double eventsPerSecond() {
+    return this.nanosSpent == 0 ? 0 : this.eventsApplied * 1e9 / this.nanosSpent;
+  }
+
+  // Purpose: Closes the log
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  // Replays a log and prints how fast it went and how the game ended.
+  // Usage: java ReplayEngine file [checkpointEvery] [--defer]
+  public static void main(String[] args) throws IOException {
+    try (ReplayEngine engine = new ReplayEngine(Paths.get(args[0]))) {
+      long checkpointEvery = args.length > 1 ? Long.parseLong(args[1]) : 0;
+      engine.deferPower = args.length > 2 && args[2].equals("--defer");
+      engine.run(checkpointEvery, null);
+      System.out.printf("%d events, %d checkpoints, %.0f events/sec, %d of %d tiles powered%n",
+        engine.eventsApplied, engine.checkpoints, engine.eventsPerSecond(),
+        engine.game.poweredCount, engine.game.wires.size());
+    }
+  }
+}
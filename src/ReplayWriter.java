@@ -0,0 +1,122 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+// Writes the inputs a LightEmAll game accepts to a compact binary replay log. A log starts with
+// a 24-byte header, big-endian like every other field:
+//   int magic, byte version, byte layout (LightEmAll.MANUAL, FRACTAL or RANDOM_TREE),
+//   short reserved,
+//   int width, int height, long seed
+// which is enough to rebuild the starting board, followed by one int per event. The top two bits
+// of an event give its kind and the rest its argument: ROTATE carries the index of the rotated
+// tile, row * width + col, and MOVE carries the direction the power station moved in.
+// Only inputs that changed the game are logged, so every event replays exactly as recorded.
+class ReplayWriter implements Closeable {
+  static final int MAGIC = 0x4C454D52; // "LEMR"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 24;
+  static final int ROTATE = 0; // event kind for a tile rotated once clockwise
+  static final int MOVE = 1; // event kind for the power station stepping along a wire
+  static final int ARGUMENT_BITS = 0x3FFFFFFF; // bits of an event below its kind
+
+  FileChannel channel; // the log being written
+  ByteBuffer buffer; // events waiting to be written to the channel
+  long events; // number of events written so far
+
+  // Creates a log for the given game, which must have been generated from its seed and not
+  // have received any input yet. Loaded or hand-built boards are rejected, since the header
+  // could not rebuild them
+  ReplayWriter(Path file, LightEmAll game) throws IOException {
+    if (!game.seeded) {
+      throw new IllegalArgumentException("Only boards generated from a seed can be logged");
+    }
+    if ((long) game.width * game.height > ARGUMENT_BITS) {
+      throw new IllegalArgumentException("Board too large to log: " + game.width + "x"
+        + game.height);
+    }
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING);
+    this.buffer = ByteBuffer.allocateDirect(1 << 16);
+    this.buffer.putInt(MAGIC);
+    this.buffer.put((byte) VERSION);
+    this.buffer.put((byte) game.layout);
+    this.buffer.putShort((short) 0);
+    this.buffer.putInt(game.width);
+    this.buffer.putInt(game.height);
+    this.buffer.putLong(game.seed);
+  }
+
+  // Purpose: Logs that the tile at the given index was rotated once clockwise
+  void rotate(int index) {
+    this.write((ROTATE << 30) | index);
+  }
+
+  // Purpose: Logs that the power station moved one tile in the given direction
+  void move(int direction) {
+    this.write((MOVE << 30) | direction);
+  }
+
+  // Purpose: Appends one event, writing the buffer out when it is full
+  void write(int event) {
+    if (this.buffer.remaining() < 4) {
+      this.flush();
+    }
+    this.buffer.putInt(event);
+    this.events++;
+  }
+
+  // Purpose: Writes every buffered event to the file
+  void flush() {
+    try {
+      this.buffer.flip();
+      while (this.buffer.hasRemaining()) {
+        this.channel.write(this.buffer);
+      }
+      this.buffer.clear();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Purpose: Writes the remaining events and closes the file
+  public void close() throws IOException {
+    this.flush();
+    this.channel.close();
+  }
+
+  // Writes a log of random clicks and station moves, for testing and benchmarking replays.
+  // Usage: java ReplayWriter file events size [manual|fractal|random] [seed]
+  public static void main(String[] args) throws IOException {
+    Path file = Paths.get(args[0]);
+    long events = Long.parseLong(args[1]);
+    int size = Integer.parseInt(args[2]);
+    int layout = args.length > 3 ? LightEmAll.layoutNamed(args[3]) : LightEmAll.MANUAL;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+
+    LightEmAll game = new LightEmAll(size, size, layout, seed);
+    Random rand = new Random(seed);
+    try (ReplayWriter writer = new ReplayWriter(file, game)) {
+      while (writer.events < events) {
+        int station = game.indexOf(game.powerCol, game.powerRow);
+        int direction = rand.nextInt(4);
+        if (rand.nextInt(8) == 0 && game.wires.linked(station, direction)) {
+          int next = game.wires.neighbor(station, direction);
+          game.movePowerStation(next % game.width, next / game.width);
+          writer.move(direction);
+        }
+        else {
+          int index = rand.nextInt(game.wires.size());
+          game.wires.rotate(index, 1);
+          writer.rotate(index);
+        }
+      }
+    }
+  }
+}
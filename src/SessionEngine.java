@@ -0,0 +1,133 @@
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hosts many GameSessions on one executor. Sessions only hold a thread while they have a batch
+// to apply, so a handful of threads serve any number of boards. Where the runtime has virtual
+// threads every batch gets its own; otherwise batches share a work-stealing pool with one
+// thread per processor.
+class SessionEngine implements AutoCloseable {
+  ExecutorService executor; // runs the batches of every session
+  boolean virtualThreads; // whether executor starts a virtual thread per batch
+
+  // Creates an engine on virtual threads if the runtime has them
+  SessionEngine() {
+    this.executor = virtualThreadExecutor();
+    this.virtualThreads = this.executor != null;
+    if (this.executor == null) {
+      this.executor = Executors.newWorkStealingPool();
+    }
+  }
+
+  // Purpose: Returns an executor that starts a virtual thread per task, or null on runtimes
+  // without virtual threads. Looked up reflectively so the code still builds for older ones
+  static ExecutorService virtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    }
+    catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  // Purpose: Starts a session over the given game
+  GameSession open(LightEmAll game) {
+    return new GameSession(game, this.executor);
+  }
+
+  // Purpose: Stops accepting batches and waits for the running ones to finish
+  public void close() {
+    this.executor.shutdown();
+    try {
+      this.executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Runs many sessions with several players clicking on random boards as fast as they can,
+  // while a reader keeps taking snapshots, and reports how many sessions each core could host
+  // at a human rate of input.
+  // Usage: java SessionEngine [sessions] [size] [seconds] [players] [humanCommandsPerSecond]
+  public static void main(String[] args) throws InterruptedException {
+    int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int cores = Runtime.getRuntime().availableProcessors();
+    int players = args.length > 3 ? Integer.parseInt(args[3]) : cores;
+    double humanRate = args.length > 4 ? Double.parseDouble(args[4]) : 5;
+
+    try (SessionEngine engine = new SessionEngine()) {
+      GameSession[] sessions = new GameSession[sessionCount];
+      for (int i = 0; i < sessionCount; i++) {
+        sessions[i] = engine.open(new LightEmAll(size, size, LightEmAll.RANDOM_TREE, i));
+      }
+
+      long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+      AtomicLong submitted = new AtomicLong();
+      AtomicLong snapshotsRead = new AtomicLong();
+      ArrayList<Thread> threads = new ArrayList<Thread>();
+      String[] keys = {"up", "down", "left", "right"};
+      for (int p = 0; p < players; p++) {
+        SplittableRandom rand = new SplittableRandom(p);
+        threads.add(new Thread(() -> {
+          long count = 0;
+          while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+            GameSession session = sessions[rand.nextInt(sessions.length)];
+            if (rand.nextInt(8) == 0) {
+              session.press(keys[rand.nextInt(4)]);
+            }
+            else {
+              session.click(rand.nextInt(size), rand.nextInt(size));
+            }
+            count++;
+          }
+          submitted.addAndGet(count);
+        }));
+      }
+      threads.add(new Thread(() -> {
+        SplittableRandom rand = new SplittableRandom(-1);
+        long count = 0;
+        while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+          sessions[rand.nextInt(sessions.length)].snapshot();
+          count++;
+        }
+        snapshotsRead.addAndGet(count);
+      }));
+
+      long start = System.nanoTime();
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      for (GameSession session : sessions) {
+        session.awaitIdle();
+      }
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      long applied = 0;
+      long batches = 0;
+      for (GameSession session : sessions) {
+        applied += session.commandsApplied;
+        batches += session.batches;
+      }
+      double perSecond = applied / elapsed;
+      System.out.printf("%d sessions of %dx%d on %s, %d players, %d cores%n", sessionCount, size,
+        size, engine.virtualThreads ? "virtual threads" : "a work-stealing pool", players, cores);
+      System.out.printf("%d commands submitted, %d applied in %d batches (%.1f per batch)%n",
+        submitted.get(), applied, batches, batches == 0 ? 0.0 : (double) applied / batches);
+      System.out.printf("%.0f commands/sec, %.0f snapshots read/sec%n", perSecond,
+        snapshotsRead.get() / elapsed);
+      System.out.printf("%.0f sessions per core at %.1f commands/sec each%n",
+        perSecond / humanRate / cores, humanRate);
+    }
+  }
+}
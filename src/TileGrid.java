@@ -0,0 +1,72 @@
+import java.util.Arrays;
+
+// Where the tiles of a board sit on screen at one tile size. Drawing takes tile centers from
+// it, and a click is resolved to its column and row by two table lookups, one entry for every
+// pixel across and down the board, rather than by dividing the position by the tile size.
+class TileGrid {
+  int columns; // number of tiles across
+  int rows; // number of tiles down
+  int tileSize; // width and height of each tile in pixels
+  int wireWidth; // thickness of each wire in pixels
+  int[] colAt; // column under each pixel across the board
+  int[] rowAt; // row under each pixel down the board
+
+  // Lays out a board of the given number of columns and rows with tiles of the given size
+  TileGrid(int columns, int rows, int tileSize) {
+    if (tileSize <= 0 || (long) columns * tileSize > Integer.MAX_VALUE - 8
+      || (long) rows * tileSize > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Unsupported tile size " + tileSize + " for a "
+        + columns + "x" + rows + " board");
+    }
+    this.columns = columns;
+    this.rows = rows;
+    this.tileSize = tileSize;
+    this.wireWidth = Math.max(1, tileSize / 10);
+    this.colAt = lookup(columns, tileSize);
+    this.rowAt = lookup(rows, tileSize);
+  }
+
+  // Purpose: Builds the table of which tile each of count * tileSize pixels falls in
+  static int[] lookup(int count, int tileSize) {
+    int[] at = new int[count * tileSize];
+    for (int tile = 0; tile < count; tile++) {
+      Arrays.fill(at, tile * tileSize, (tile + 1) * tileSize, tile);
+    }
+    return at;
+  }
+
+  // Purpose: Checks whether this grid lays out a board of the given shape at the given size
+  boolean matches(int columns, int rows, int tileSize) {
+    return this.columns == columns && this.rows == rows && this.tileSize == tileSize;
+  }
+
+  // Purpose: Returns the column under the given x position, or -1 if it is off the board
+  int column(int x) {
+    return x >= 0 && x < this.colAt.length ? this.colAt[x] : -1;
+  }
+
+  // Purpose: Returns the row under the given y position, or -1 if it is off the board
+  int row(int y) {
+    return y >= 0 && y < this.rowAt.length ? this.rowAt[y] : -1;
+  }
+
+  // Purpose: Returns the x position of the center of the given column
+  int centerX(int col) {
+    return col * this.tileSize + this.tileSize / 2;
+  }
+
+  // Purpose: Returns the y position of the center of the given row
+  int centerY(int row) {
+    return row * this.tileSize + this.tileSize / 2;
+  }
+
+  // Purpose: Returns the width of the whole board in pixels
+  int pixelWidth() {
+    return this.colAt.length;
+  }
+
+  // Purpose: Returns the height of the whole board in pixels
+  int pixelHeight() {
+    return this.rowAt.length;
+  }
+}
@@ -0,0 +1,54 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import javalib.worldimages.*;
+
+// Caches the drawn image of every tile appearance for one tile size and wire width. A tile's
+// look depends only on its 4-bit wire mask, its wire color and whether it holds the power
+// station, so a whole board can be drawn from a handful of shared images.
+class TileImageCache {
+  int size; // width and height of each tile image in pixels
+  int wireWidth; // thickness of each wire in pixels
+  ArrayList<Color> colors; // wire colors seen so far, in the order they were first requested
+  ArrayList<WorldImage[]> images; // for each color, images indexed by mask * 2 + station
+  int created; // number of images drawn so far
+
+  // Creates an empty cache for tiles of the given size and wire width
+  TileImageCache(int size, int wireWidth) {
+    this.size = size;
+    this.wireWidth = wireWidth;
+    this.colors = new ArrayList<Color>();
+    this.images = new ArrayList<WorldImage[]>();
+  }
+
+  // Purpose: Checks whether this cache draws tiles of the given size and wire width
+  boolean matches(int size, int wireWidth) {
+    return this.size == size && this.wireWidth == wireWidth;
+  }
+
+  // Purpose: Returns the image of a tile with the given wires, color and station marker,
+  // drawing it only the first time it is requested
+  WorldImage get(int mask, Color wireColor, boolean hasPowerStation) {
+    WorldImage[] forColor = this.imagesFor(wireColor);
+    int slot = mask * 2 + (hasPowerStation ? 1 : 0);
+    WorldImage image = forColor[slot];
+    if (image == null) {
+      image = GamePiece.drawTile(mask, this.size, this.wireWidth, wireColor, hasPowerStation);
+      forColor[slot] = image;
+      this.created++;
+    }
+    return image;
+  }
+
+  // Purpose: Finds the image slots for the given color, adding them if the color is new
+  WorldImage[] imagesFor(Color wireColor) {
+    for (int i = 0; i < this.colors.size(); i++) {
+      if (this.colors.get(i).equals(wireColor)) {
+        return this.images.get(i);
+      }
+    }
+    WorldImage[] forColor = new WorldImage[32];
+    this.colors.add(wireColor);
+    this.images.add(forColor);
+    return forColor;
+  }
+}
@@ -0,0 +1,357 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Undo and redo for the rotations and station moves a LightEmAll game accepts. Every action is
+// one int in the replay log's event format, so a rotation is undone by turning its tile back
+// and a move by stepping the station the other way. With one station and power up to date, a
+// rotation is repaired in place, and the journal records the depth of every tile the repair
+// touched before and after it, so undo and redo put power back without any search. Other
+// actions fall back to the game's own rotation and power updates. Every SNAPSHOT_EVERY actions
+// the wiring is saved in pages, sharing with the previous snapshot the pages no action touched
+// since, so jumping many actions back or forth restores the nearest snapshot, replays fewer
+// than SNAPSHOT_EVERY actions and recomputes power once.
+class UndoJournal {
+  // Actions between snapshots of the wiring
+  static final int SNAPSHOT_EVERY = 64;
+  // Tiles per page of a snapshot, copied only when one of them was touched
+  static final int PAGE_TILES = 4096;
+
+  LightEmAll game; // game whose inputs are journaled
+  int[] deltas; // actions in the replay log's event format, oldest first
+  int[] recordStart; // place in records where each action's power changes start
+  int[] recordEnd; // place in records where each action's power changes end, or -1 if the
+                   // action was not recorded
+  int count; // number of actions journaled, including undone ones that can be redone
+  int cursor; // number of actions currently applied
+  int[] records; // power changes as triples of tile, depth before and depth after
+  int recordLength; // number of ints of records in use
+  int maxRecord; // most tiles one action may record before its record is dropped
+  boolean capturing; // whether power changes of the action underway are being recorded
+  int captureStart; // place in records where the action underway starts
+  int[] stamps; // action during which each tile was last recorded, or null until needed
+  int epoch; // number of actions begun, for stamps
+  ArrayList<BoardSnapshot> snapshots; // saved wiring by action, oldest first
+  BoardSnapshot base; // snapshot the wiring was last known to match, apart from dirtyPages
+  long[] dirtyPages; // pages touched since the wiring matched base, one bit per page
+
+  // Creates an empty journal for the given game, starting from its current state
+  UndoJournal(LightEmAll game) {
+    int size = game.wires.size();
+    int pages = (size + PAGE_TILES - 1) / PAGE_TILES;
+    this.game = game;
+    this.deltas = new int[SNAPSHOT_EVERY];
+    this.recordStart = new int[SNAPSHOT_EVERY];
+    this.recordEnd = new int[SNAPSHOT_EVERY];
+    this.records = new int[3 * SNAPSHOT_EVERY];
+    this.maxRecord = Math.max(64, size / 16);
+    this.snapshots = new ArrayList<BoardSnapshot>();
+    this.dirtyPages = new long[(pages + 63) >>> 6];
+    this.clear();
+  }
+
+  // Purpose: Forgets every action and starts again from the game's current state, after the
+  // board was replaced
+  void clear() {
+    this.count = 0;
+    this.cursor = 0;
+    this.recordLength = 0;
+    this.capturing = false;
+    this.snapshots.clear();
+    this.base = new BoardSnapshot(this.game, 0, null, null);
+    this.snapshots.add(this.base);
+    Arrays.fill(this.dirtyPages, 0L);
+  }
+
+  // Purpose: Checks whether there is an action to undo
+  boolean canUndo() {
+    return this.cursor > 0;
+  }
+
+  // Purpose: Checks whether there is an undone action to redo
+  boolean canRedo() {
+    return this.cursor < this.count;
+  }
+
+  // Purpose: Starts journaling a rotation that is about to be applied, recording its power
+  // changes when the game will repair them in place
+  void beginRotation() {
+    this.truncate();
+    this.epoch++;
+    this.captureStart = this.recordLength;
+    this.capturing = this.game.extraStations == 0 && !this.game.powerStale;
+    if (this.capturing && this.stamps == null) {
+      this.stamps = new int[this.game.wires.size()];
+    }
+  }
+
+  // Purpose: Notes the depth of a tile whose power is about to change, once per action
+  void powerChanging(int index) {
+    if (!this.capturing || this.stamps[index] == this.epoch) {
+      return;
+    }
+    this.stamps[index] = this.epoch;
+    if ((this.recordLength - this.captureStart) / 3 == this.maxRecord) {
+      // Too large to be worth keeping, so undo repairs power the way the click did
+      this.capturing = false;
+      this.recordLength = this.captureStart;
+      return;
+    }
+    if (this.recordLength + 3 > this.records.length) {
+      this.records = Arrays.copyOf(this.records, this.records.length * 2);
+    }
+    this.records[this.recordLength] = index;
+    this.records[this.recordLength + 1] = this.game.powerDepth[index];
+    this.recordLength += 3;
+  }
+
+  // Purpose: Drops the record of the action underway after power was recomputed from scratch
+  void powerRecomputed() {
+    if (this.capturing) {
+      this.capturing = false;
+      this.recordLength = this.captureStart;
+    }
+  }
+
+  // Purpose: Finishes journaling the rotation of the tile at the given index
+  void rotated(int index) {
+    boolean recorded = this.capturing;
+    this.capturing = false;
+    int start = this.captureStart;
+    for (int r = start; r < this.recordLength; r += 3) {
+      this.records[r + 2] = this.game.powerDepth[this.records[r]];
+    }
+    this.touch(index);
+    this.push((ReplayWriter.ROTATE << 30) | index, start, recorded ? this.recordLength : -1);
+  }
+
+  // Purpose: Journals a step of the main station in the given direction, made just now
+  void moved(int direction) {
+    this.truncate();
+    this.push((ReplayWriter.MOVE << 30) | direction, this.recordLength, -1);
+  }
+
+  // Purpose: Forgets the undone actions before a new one is journaled
+  void truncate() {
+    if (this.cursor == this.count) {
+      return;
+    }
+    this.recordLength = this.recordStart[this.cursor];
+    this.count = this.cursor;
+    int last = this.snapshots.size() - 1;
+    while (this.snapshots.get(last).action > this.cursor) {
+      this.snapshots.remove(last--);
+    }
+  }
+
+  // Purpose: Appends an applied action, saving a snapshot every SNAPSHOT_EVERY actions
+  void push(int event, int start, int end) {
+    if (this.count == this.deltas.length) {
+      int capacity = this.count * 2;
+      this.deltas = Arrays.copyOf(this.deltas, capacity);
+      this.recordStart = Arrays.copyOf(this.recordStart, capacity);
+      this.recordEnd = Arrays.copyOf(this.recordEnd, capacity);
+    }
+    this.deltas[this.count] = event;
+    this.recordStart[this.count] = start;
+    this.recordEnd[this.count] = end;
+    this.count++;
+    this.cursor++;
+    if (this.cursor % SNAPSHOT_EVERY == 0) {
+      this.base = new BoardSnapshot(this.game, this.cursor, this.base, this.dirtyPages);
+      this.snapshots.add(this.base);
+      Arrays.fill(this.dirtyPages, 0L);
+    }
+  }
+
+  // Purpose: Notes that the wiring of the tile at the given index changed
+  void touch(int index) {
+    int page = index / PAGE_TILES;
+    this.dirtyPages[page >>> 6] |= 1L << page;
+  }
+
+  // Purpose: Undoes the last applied action, returning false if there is none
+  boolean undo() {
+    if (this.cursor == 0) {
+      return false;
+    }
+    this.cursor--;
+    this.step(this.cursor, false);
+    return true;
+  }
+
+  // Purpose: Redoes the last undone action, returning false if there is none
+  boolean redo() {
+    if (this.cursor == this.count) {
+      return false;
+    }
+    this.step(this.cursor, true);
+    this.cursor++;
+    return true;
+  }
+
+  // Purpose: Undoes up to the given number of actions, returning how many were undone
+  int undo(int steps) {
+    int target = Math.max(0, this.cursor - steps);
+    int undone = this.cursor - target;
+    this.jumpTo(target);
+    return undone;
+  }
+
+  // Purpose: Redoes up to the given number of actions, returning how many were redone
+  int redo(int steps) {
+    int target = this.cursor + Math.min(steps, this.count - this.cursor);
+    int redone = target - this.cursor;
+    this.jumpTo(target);
+    return redone;
+  }
+
+  // Purpose: Brings the game to the state after the given number of actions, one action at a
+  // time when that is close and from the nearest earlier snapshot otherwise
+  void jumpTo(int target) {
+    if (Math.abs(target - this.cursor) < SNAPSHOT_EVERY) {
+      while (this.cursor > target) {
+        this.undo();
+      }
+      while (this.cursor < target) {
+        this.redo();
+      }
+      return;
+    }
+    int s = this.snapshots.size() - 1;
+    while (this.snapshots.get(s).action > target) {
+      s--;
+    }
+    BoardSnapshot snapshot = this.snapshots.get(s);
+    this.restore(snapshot);
+
+    // Replay the actions after the snapshot on the wiring alone, then find power once
+    LightEmAll game = this.game;
+    for (int k = snapshot.action; k < target; k++) {
+      int argument = this.deltas[k] & ReplayWriter.ARGUMENT_BITS;
+      if ((this.deltas[k] >>> 30) == ReplayWriter.ROTATE) {
+        game.wires.rotate(argument, 1);
+        game.markDirty(argument);
+        this.touch(argument);
+      }
+      else {
+        int next = game.wires.neighbor(game.indexOf(game.powerCol, game.powerRow), argument);
+        game.movePowerStation(next % game.width, next / game.width);
+      }
+    }
+    this.cursor = target;
+    game.updatePower();
+  }
+
+  // Purpose: Puts the wiring and main station back as the given snapshot saved them,
+  // rewriting only pages touched since it was last restored or saved
+  void restore(BoardSnapshot snapshot) {
+    LightEmAll game = this.game;
+    PackedBoard wires = game.wires;
+    int size = wires.size();
+    for (int page = 0; page < snapshot.pages.length; page++) {
+      if (snapshot == this.base && (this.dirtyPages[page >>> 6] & (1L << page)) == 0) {
+        continue;
+      }
+      byte[] masks = snapshot.pages[page];
+      int first = page * PAGE_TILES;
+      for (int i = first; i < Math.min(first + PAGE_TILES, size); i++) {
+        int mask = masks[i - first];
+        if (wires.mask(i) != mask) {
+          wires.setMask(i, mask);
+          game.markDirty(i);
+        }
+      }
+    }
+    this.base = snapshot;
+    Arrays.fill(this.dirtyPages, 0L);
+    game.movePowerStation(snapshot.powerCol, snapshot.powerRow);
+  }
+
+  // Purpose: Writes the events that undo or redo the given action to the given replay log,
+  // if there is one
+  void log(ReplayWriter recorder, int action, boolean forward) {
+    if (recorder == null) {
+      return;
+    }
+    int argument = this.deltas[action] & ReplayWriter.ARGUMENT_BITS;
+    if ((this.deltas[action] >>> 30) == ReplayWriter.MOVE) {
+      recorder.move(forward ? argument : (argument + 2) & 3);
+    }
+    else {
+      for (int i = forward ? 3 : 1; i < 4; i++) {
+        recorder.rotate(argument);
+      }
+    }
+  }
+
+  // Purpose: Undoes or redoes the given action, restoring power from its record if it has one
+  void step(int action, boolean forward) {
+    LightEmAll game = this.game;
+    int argument = this.deltas[action] & ReplayWriter.ARGUMENT_BITS;
+    if ((this.deltas[action] >>> 30) == ReplayWriter.MOVE) {
+      int direction = forward ? argument : (argument + 2) & 3;
+      int next = game.wires.neighbor(game.indexOf(game.powerCol, game.powerRow), direction);
+      game.movePowerStation(next % game.width, next / game.width);
+      game.afterStationStep();
+      return;
+    }
+
+    this.touch(argument);
+    int end = this.recordEnd[action];
+    if (end < 0 || game.extraStations > 0 || game.powerStale) {
+      // Three clockwise turns undo one
+      int turns = forward ? 1 : 3;
+      for (int i = 0; i < turns; i++) {
+        game.rotatePiece(argument % game.width, argument / game.width);
+      }
+      return;
+    }
+    int linkedBefore = game.wires.linkedMask(argument);
+    game.wires.rotate(argument, forward ? 1 : 3);
+    game.markDirty(argument);
+    if (game.unboundedRadius) {
+      game.connectivity.changed(argument, linkedBefore);
+    }
+    for (int r = this.recordStart[action]; r < end; r += 3) {
+      int depth = this.records[forward ? r + 2 : r + 1];
+      if (depth >= 0) {
+        game.setPowered(this.records[r], depth);
+      }
+      else {
+        game.setUnpowered(this.records[r]);
+      }
+    }
+  }
+}
+
+// The wiring of a board and the position of its main station after some number of journaled
+// actions, split into pages that later snapshots share while nothing touches them
+class BoardSnapshot {
+  int action; // number of actions applied when the snapshot was taken
+  byte[][] pages; // wire masks by page of UndoJournal.PAGE_TILES tiles
+  int powerCol; // column of the main station
+  int powerRow; // row of the main station
+
+  // Saves the given game's state after the given number of actions, sharing with base every
+  // page whose bit in dirtyPages is clear, or copying every page if base is null
+  BoardSnapshot(LightEmAll game, int action, BoardSnapshot base, long[] dirtyPages) {
+    PackedBoard wires = game.wires;
+    int size = wires.size();
+    this.action = action;
+    this.pages = new byte[(size + UndoJournal.PAGE_TILES - 1) / UndoJournal.PAGE_TILES][];
+    for (int page = 0; page < this.pages.length; page++) {
+      if (base != null && (dirtyPages[page >>> 6] & (1L << page)) == 0) {
+        this.pages[page] = base.pages[page];
+        continue;
+      }
+      int first = page * UndoJournal.PAGE_TILES;
+      byte[] masks = new byte[Math.min(UndoJournal.PAGE_TILES, size - first)];
+      for (int i = 0; i < masks.length; i++) {
+        masks[i] = (byte) wires.mask(first + i);
+      }
+      this.pages[page] = masks;
+    }
+    this.powerCol = game.powerCol;
+    this.powerRow = game.powerRow;
+  }
+}
@@ -0,0 +1,50 @@
+// Disjoint sets over the tile indices of a board, with union by size and path halving
+class UnionFind {
+  int[] parent; // parent of each element, or itself for a root
+  int[] size; // number of elements in each set, valid at its root
+  int sets; // number of disjoint sets
+
+  // Creates a structure where each of the given number of elements is alone in its set
+  UnionFind(int count) {
+    this.parent = new int[count];
+    this.size = new int[count];
+    this.reset();
+  }
+
+  // Purpose: Puts every element back in a set of its own
+  void reset() {
+    for (int i = 0; i < this.parent.length; i++) {
+      this.parent[i] = i;
+      this.size[i] = 1;
+    }
+    this.sets = this.parent.length;
+  }
+
+  // Purpose: Finds the root of the set containing the given element
+  int find(int i) {
+    while (this.parent[i] != i) {
+      this.parent[i] = this.parent[this.parent[i]];
+      i = this.parent[i];
+    }
+    return i;
+  }
+
+  // Purpose: Merges the sets containing the two elements, returning false if they were
+  // already the same set
+  boolean union(int a, int b) {
+    int ra = this.find(a);
+    int rb = this.find(b);
+    if (ra == rb) {
+      return false;
+    }
+    if (this.size[ra] < this.size[rb]) {
+      int swap = ra;
+      ra = rb;
+      rb = swap;
+    }
+    this.parent[rb] = ra;
+    this.size[ra] += this.size[rb];
+    this.sets--;
+    return true;
+  }
+}